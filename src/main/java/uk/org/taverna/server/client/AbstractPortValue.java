@@ -32,12 +32,18 @@
 
 package uk.org.taverna.server.client;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.AbstractList;
 
+import org.apache.commons.io.LineIterator;
 import org.apache.commons.lang.text.StrBuilder;
 
 /**
@@ -161,6 +167,37 @@ public abstract class AbstractPortValue extends AbstractList<AbstractPortValue>
 	 */
 	public abstract void writeDataToFile(File file) throws IOException;
 
+	/**
+	 * Write all the data held in this port value to a stream, without loading
+	 * it into memory. The stream is not closed.
+	 * 
+	 * @param stream
+	 *            the stream to write the data to.
+	 * @return the number of bytes written.
+	 * @throws UnsupportedOperationException
+	 *             if called on an instance of {@link PortListValue}.
+	 * @throws IOException
+	 *             if the data cannot be read or written for any reason.
+	 * @since 0.9.0
+	 */
+	public abstract long writeTo(OutputStream stream) throws IOException;
+
+	/**
+	 * Write all the data held in this port value to a channel, such as a
+	 * socket, without loading it into memory. The channel is not closed.
+	 * 
+	 * @param channel
+	 *            the channel to write the data to.
+	 * @return the number of bytes written.
+	 * @throws UnsupportedOperationException
+	 *             if called on an instance of {@link PortListValue}.
+	 * @throws IOException
+	 *             if the data cannot be read or written for any reason.
+	 * @since 0.9.0
+	 */
+	public abstract long writeTo(WritableByteChannel channel)
+			throws IOException;
+
 	/**
 	 * Get all the data held in this port value and return it as a String.
 	 * 
@@ -175,6 +212,50 @@ public abstract class AbstractPortValue extends AbstractList<AbstractPortValue>
 		return new String(getData());
 	}
 
+	/**
+	 * Get a reader over the data held in this port value, decoding it with
+	 * the given character set as it is downloaded. Unlike
+	 * {@link #getDataAsString()} the data is never all held in memory at
+	 * once, so this is suitable for very large text values. The data is read
+	 * straight from the server and is never held in the response cache.
+	 * 
+	 * <b>Note:</b> You are responsible for closing the reader once you have
+	 * finished with it. Not doing so may prevent further use of the
+	 * underlying network connection.
+	 * 
+	 * @param charset
+	 *            the character set the data is encoded in.
+	 * @return a reader over the data.
+	 * @throws UnsupportedOperationException
+	 *             if called on an instance of {@link PortListValue}.
+	 * @since 0.9.0
+	 * @see #getDataStream()
+	 */
+	public BufferedReader getDataReader(Charset charset) {
+		return new BufferedReader(new InputStreamReader(getDataStream(),
+				charset));
+	}
+
+	/**
+	 * Get an iterator over the lines of the data held in this port value,
+	 * decoding it with the given character set as it is downloaded. Only the
+	 * current line is held in memory.
+	 * 
+	 * <b>Note:</b> You are responsible for closing the iterator, with
+	 * {@link LineIterator#close()}, if you do not read it to the end.
+	 * 
+	 * @param charset
+	 *            the character set the data is encoded in.
+	 * @return an iterator over the lines of the data.
+	 * @throws UnsupportedOperationException
+	 *             if called on an instance of {@link PortListValue}.
+	 * @since 0.9.0
+	 * @see #getDataReader(Charset)
+	 */
+	public LineIterator getDataLines(Charset charset) {
+		return new LineIterator(getDataReader(charset));
+	}
+
 	/**
 	 * Get the size, in bytes, of the data held by this value. For lists this is
 	 * the total of all the data sizes in the list.
@@ -42,9 +42,12 @@ import java.io.FileNotFoundException;
  */
 public final class InputPort extends Port {
 
-	private String value;
-	private String filename;
-	private boolean remoteFile;
+	// Set by the caller but read and updated by the threads that send them
+	// when a run is started, so volatile.
+	private volatile String value;
+	private volatile String filename;
+	private volatile boolean remoteFile;
+	private volatile boolean sent;
 
 	InputPort(Run run, String name, int depth) {
 		super(run, name, depth);
@@ -52,6 +55,7 @@ public final class InputPort extends Port {
 		value = null;
 		filename = null;
 		remoteFile = false;
+		sent = false;
 	}
 
 	public String getValue() {
@@ -62,6 +66,7 @@ public final class InputPort extends Port {
 		if (run.isInitialized()) {
 			filename = null;
 			remoteFile = false;
+			sent = false;
 			this.value = value;
 		}
 	}
@@ -79,6 +84,7 @@ public final class InputPort extends Port {
 			if (file.isFile() && file.canRead()) {
 				value = null;
 				remoteFile = false;
+				sent = false;
 				this.filename = file.getAbsolutePath();
 			} else {
 				throw new FileNotFoundException("File '"
@@ -93,9 +99,20 @@ public final class InputPort extends Port {
 			value = null;
 			this.filename = filename;
 			remoteFile = true;
+			sent = false;
 		}
 	}
 
+	/*
+	 * Switch a local file to the remote copy it has been uploaded as. The run
+	 * is known to be initialized when this happens so it is not checked.
+	 */
+	void uploaded(String filename) {
+		value = null;
+		this.filename = filename;
+		remoteFile = true;
+	}
+
 	public boolean isFile() {
 		return !(filename == null);
 	}
@@ -111,4 +128,23 @@ public final class InputPort extends Port {
 	public boolean isSet() {
 		return !(value == null) || isFile() || isBaclava();
 	}
+
+	/*
+	 * Has this port been given a value directly, rather than by baclava?
+	 */
+	boolean hasValue() {
+		return !(value == null) || isFile();
+	}
+
+	/*
+	 * Has the current value of this port already been sent to the server? If
+	 * so it does not need to be sent again if starting the run is retried.
+	 */
+	boolean isSent() {
+		return sent;
+	}
+
+	void sent() {
+		sent = true;
+	}
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.net.URI;
+
+/**
+ * A callback interface for processing the output port descriptions of a run as
+ * they are streamed from the server, without building the complete tree of
+ * port values in memory first.
+ * 
+ * Callbacks are made in document order. For each port,
+ * {@link #startPort(String, int)} is called first, followed by the callbacks
+ * for its value and finally {@link #endPort(String)}. Lists are bracketed by
+ * {@link #startList(URI)} and {@link #endList()} calls and may be nested to
+ * the depth of the port.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ * @see Run#visitOutputPorts(OutputPortVisitor)
+ */
+public interface OutputPortVisitor {
+
+	/**
+	 * Called at the start of each output port.
+	 * 
+	 * @param name
+	 *            the name of the port.
+	 * @param depth
+	 *            the depth of the data in the port.
+	 */
+	public void startPort(String name, int depth);
+
+	/**
+	 * Called at the start of each list value.
+	 * 
+	 * @param reference
+	 *            the URI reference to the list on the remote server.
+	 */
+	public void startList(URI reference);
+
+	/**
+	 * Called for each leaf value. This will be an instance of either
+	 * {@link PortDataValue} or {@link PortErrorValue}.
+	 * 
+	 * @param value
+	 *            the leaf value.
+	 */
+	public void value(AbstractPortValue value);
+
+	/**
+	 * Called at the end of each list value.
+	 */
+	public void endList();
+
+	/**
+	 * Called at the end of each output port.
+	 * 
+	 * @param name
+	 *            the name of the port.
+	 */
+	public void endPort(String name);
+}
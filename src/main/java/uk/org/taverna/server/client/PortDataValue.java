@@ -32,14 +32,24 @@
 
 package uk.org.taverna.server.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.math.LongRange;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 
+import uk.org.taverna.server.client.connection.MimeType;
 import uk.org.taverna.server.client.util.IOUtils;
+import uk.org.taverna.server.client.util.ReadAheadInputStream;
 
 /**
  * 
@@ -50,6 +60,12 @@ public class PortDataValue extends AbstractPortValue {
 	// If there is no data...
 	private static final byte[] EMPTY_DATA = new byte[0];
 
+	/*
+	 * Values up to this size are read into a direct buffer, bigger ones are
+	 * spooled to disk and mapped.
+	 */
+	private static final long DIRECT_BUFFER_LIMIT = 16 * 1024 * 1024;
+
 	PortDataValue(Run run, URI reference, String type, long size) {
 		super(run, reference, type, size);
 	}
@@ -102,8 +118,101 @@ public class PortDataValue extends AbstractPortValue {
 		return run.getOutputDataStream(reference, null);
 	}
 
+	/**
+	 * Get a stream over the data held in this port value that downloads it
+	 * ahead of the reader on a background thread, so that processing the data
+	 * overlaps with downloading it. This suits consumers, such as parsers,
+	 * that read a large value from start to end.
+	 * 
+	 * <b>Note:</b> You are responsible for closing the stream once you have
+	 * finished with it.
+	 * 
+	 * @param lookahead
+	 *            the number of blocks of
+	 *            {@link uk.org.taverna.server.client.util.BufferPool#BUFFER_SIZE}
+	 *            bytes that may be downloaded ahead of the reader.
+	 * @return the stream to read the data from.
+	 * @see ReadAheadInputStream
+	 */
+	public InputStream getDataStream(int lookahead) {
+		return new ReadAheadInputStream(getDataStream(), lookahead);
+	}
+
+	/**
+	 * Get all the data held in this port value as a stream that has already
+	 * been read in full from the server, so that no connection is held open
+	 * while it is being read. The data is held in memory if there is room in
+	 * the {@link uk.org.taverna.server.client.util.MemoryBudget MemoryBudget}
+	 * and spilled to a temporary file if not. The stream should be closed
+	 * when it is finished with to give the memory back or remove the file.
+	 * 
+	 * @return a stream over the data held in this port value.
+	 */
+	public InputStream getBufferedDataStream() {
+		if (getDataSize() == 0
+				|| contentType.equalsIgnoreCase("application/x-empty")) {
+			return new ByteArrayInputStream(EMPTY_DATA);
+		}
+
+		return run.getBufferedOutputDataStream(reference, null);
+	}
+
+	/**
+	 * Get all data held in this port value and save it to the specified file.
+	 * Large values are downloaded in parallel ranges if the server connection
+	 * has been configured to do so with the
+	 * {@link uk.org.taverna.server.client.connection.params.ConnectionPNames#DOWNLOAD_PARALLELISM}
+	 * and
+	 * {@link uk.org.taverna.server.client.connection.params.ConnectionPNames#DOWNLOAD_CHUNK_SIZE}
+	 * parameters.
+	 * 
+	 * @param file
+	 *            the file to write the data to.
+	 * @throws IOException
+	 *             if the specified file cannot be found, opened or written to
+	 *             for any reason.
+	 * @see #writeDataToFile(File, long, int)
+	 */
 	@Override
 	public void writeDataToFile(File file) throws IOException {
+		Server server = run.getServer();
+
+		writeDataToFile(file, server.getDownloadChunkSize(),
+				server.getDownloadParallelism());
+	}
+
+	/**
+	 * Get all data held in this port value and save it to the specified file.
+	 * If the value is larger than the chunk size it is split into ranges of
+	 * that size which are downloaded concurrently and written directly to
+	 * their place in the file.
+	 * 
+	 * @param file
+	 *            the file to write the data to.
+	 * @param chunkSize
+	 *            the size, in bytes, of each range to download.
+	 * @param parallelism
+	 *            the maximum number of ranges to download at the same time.
+	 *            If this is 1 the value is downloaded in one piece.
+	 * @throws IOException
+	 *             if the specified file cannot be found, opened or written to
+	 *             for any reason.
+	 */
+	public void writeDataToFile(File file, long chunkSize, int parallelism)
+			throws IOException {
+		if (chunkSize < 1 || parallelism < 1) {
+			throw new IllegalArgumentException(
+					"Chunk size and parallelism must be at least 1.");
+		}
+
+		if (parallelism > 1 && getDataSize() > chunkSize
+				&& !contentType.equalsIgnoreCase("application/x-empty")) {
+			RangedDownload.download(run, reference, getDataSize(), file,
+					chunkSize, parallelism);
+
+			return;
+		}
+
 		InputStream is = run.getOutputDataStream(reference, null);
 		try {
 			IOUtils.writeStreamToFile(is, file);
@@ -112,6 +221,89 @@ public class PortDataValue extends AbstractPortValue {
 		}
 	}
 
+	/**
+	 * Get all data held in this port value and save it to the specified file,
+	 * carrying on from the end of the file if it holds a partial copy from an
+	 * earlier attempt. If the file does not exist it is created.
+	 * 
+	 * @param file
+	 *            the file to write the data to.
+	 * @throws IOException
+	 *             if the specified file cannot be found, opened or written to
+	 *             for any reason.
+	 * @see #writeDataToFile(File)
+	 */
+	public void resumeDataToFile(File file) throws IOException {
+		run.resumeToFile(reference, MimeType.BYTES, getDataSize(), file);
+	}
+
+	/**
+	 * Open a channel over the data held in this port value that can be moved
+	 * to any position within it, so that parts of a large value can be read
+	 * without downloading all of it. Data is fetched in blocks of
+	 * {@link PortValueChannel#DEFAULT_BLOCK_SIZE} bytes and the
+	 * {@link PortValueChannel#DEFAULT_CACHE_BLOCKS} most recently used blocks
+	 * are kept in memory.
+	 * 
+	 * @return a channel over the data held in this port value.
+	 * @see #openChannel(int, int)
+	 */
+	public PortValueChannel openChannel() {
+		return openChannel(PortValueChannel.DEFAULT_BLOCK_SIZE,
+				PortValueChannel.DEFAULT_CACHE_BLOCKS);
+	}
+
+	/**
+	 * Open a channel over the data held in this port value that can be moved
+	 * to any position within it, so that parts of a large value can be read
+	 * without downloading all of it.
+	 * 
+	 * @param blockSize
+	 *            the size, in bytes, of each block to fetch from the server.
+	 * @param cacheBlocks
+	 *            the number of most recently used blocks to keep in memory.
+	 * @return a channel over the data held in this port value.
+	 */
+	public PortValueChannel openChannel(int blockSize, int cacheBlocks) {
+		long channelSize = getDataSize();
+		if (contentType.equalsIgnoreCase("application/x-empty")) {
+			channelSize = 0;
+		}
+
+		return new PortValueChannel(run, reference, channelSize, blockSize,
+				cacheBlocks);
+	}
+
+	@Override
+	public long writeTo(OutputStream stream) throws IOException {
+		if (getDataSize() == 0
+				|| contentType.equalsIgnoreCase("application/x-empty")) {
+			return 0;
+		}
+
+		InputStream is = run.getOutputDataStream(reference, null);
+		try {
+			return IOUtils.copy(is, stream);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	@Override
+	public long writeTo(WritableByteChannel channel) throws IOException {
+		if (getDataSize() == 0
+				|| contentType.equalsIgnoreCase("application/x-empty")) {
+			return 0;
+		}
+
+		InputStream is = run.getOutputDataStream(reference, null);
+		try {
+			return IOUtils.copy(is, channel);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
 	@Override
 	public byte[] getData() {
 		// LongRange is inclusive so size is too long by one.
@@ -123,6 +315,90 @@ public class PortDataValue extends AbstractPortValue {
 		return getData();
 	}
 
+	/**
+	 * Get all the data held in this port value in a read-only buffer that is
+	 * not on the Java heap. Values of up to 16MB are read into a direct
+	 * buffer; larger values are spooled to a temporary file which is then
+	 * mapped into memory, as {@link #mapData()}.
+	 * 
+	 * @return a read-only buffer holding the data.
+	 * @throws IOException
+	 *             if the data cannot be read or spooled.
+	 * @see #mapData()
+	 */
+	public ByteBuffer getDataBuffer() throws IOException {
+		if (getDataSize() > DIRECT_BUFFER_LIMIT) {
+			return mapData();
+		}
+
+		if (getDataSize() == 0
+				|| contentType.equalsIgnoreCase("application/x-empty")) {
+			return ByteBuffer.wrap(EMPTY_DATA).asReadOnlyBuffer();
+		}
+
+		InputStream is = run.getOutputDataStream(reference, null);
+		try {
+			return IOUtils.readStreamToDirectBuffer(is, (int) getDataSize());
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Spool all the data held in this port value to a temporary file and map
+	 * it into memory, read-only. The operating system pages the data in as it
+	 * is used so it is never all held on the Java heap. The temporary file is
+	 * removed once it has been mapped.
+	 * 
+	 * The data is downloaded in the same way as {@link #writeDataToFile(File)}
+	 * so large values may be fetched in parallel ranges.
+	 * 
+	 * A single buffer can map at most {@link IOUtils#MAX_MAP_SIZE} bytes
+	 * (2GB). Larger values are refused before anything is downloaded; use
+	 * {@link #openChannel()} or {@link #writeDataToFile(File)} for them.
+	 * 
+	 * @return a read-only buffer over the data.
+	 * @throws IOException
+	 *             if the data is too large to map, or cannot be downloaded,
+	 *             spooled or mapped.
+	 */
+	public MappedByteBuffer mapData() throws IOException {
+		IOUtils.checkMapSize(getDataSize());
+
+		File spool = IOUtils.createSpoolFile();
+
+		try {
+			writeDataToFile(spool);
+		} catch (IOException e) {
+			spool.delete();
+			throw e;
+		}
+
+		return IOUtils.mapFile(spool, true);
+	}
+
+	/**
+	 * Get all the data held in this port value without blocking.
+	 * 
+	 * @param callback
+	 *            called when the data is available, may be null.
+	 * @return a future for the data held in this port value.
+	 */
+	public Future<byte[]> getDataAsync(FutureCallback<byte[]> callback) {
+		// Return empty data if this value is empty.
+		if (getDataSize() == 0
+				|| contentType.equalsIgnoreCase("application/x-empty")) {
+			BasicFuture<byte[]> future = new BasicFuture<byte[]>(callback);
+			future.completed(EMPTY_DATA);
+
+			return future;
+		}
+
+		// LongRange is inclusive so size is too long by one.
+		return run.getOutputDataAsync(reference, new LongRange(0, (size - 1)),
+				callback);
+	}
+
 	public byte[] getData(int start, int length) {
 		// If length is zero then there is nothing to return.
 		if (length == 0) {
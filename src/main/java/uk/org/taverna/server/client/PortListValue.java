@@ -34,7 +34,9 @@ package uk.org.taverna.server.client;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 import org.apache.commons.lang.text.StrBuilder;
@@ -111,6 +113,18 @@ public final class PortListValue extends AbstractPortValue {
 				"This operation is not supported for list output ports.");
 	}
 
+	@Override
+	public long writeTo(OutputStream stream) {
+		throw new UnsupportedOperationException(
+				"This operation is not supported for list output ports.");
+	}
+
+	@Override
+	public long writeTo(WritableByteChannel channel) {
+		throw new UnsupportedOperationException(
+				"This operation is not supported for list output ports.");
+	}
+
 	@Override
 	public long getDataSize() {
 		if (dataSize == -1) {
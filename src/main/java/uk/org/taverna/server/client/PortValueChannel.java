@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.math.LongRange;
+
+/**
+ * A read-only channel over the data held in a remote port value that can be
+ * moved to any position within the value. The data is fetched from the
+ * server in fixed-size blocks, aligned to multiples of the block size, using
+ * ranged requests. The most recently used blocks are kept in memory so that
+ * reads which jump around a value, or go back over data already read, do not
+ * fetch it again.
+ * 
+ * Positions are longs so values larger than 2GB can be read in full. The
+ * methods of this class mirror those of a read-only seekable channel. Reads
+ * are synchronized, so a channel can be shared between threads, although it
+ * only has one position.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ * @see PortDataValue#openChannel()
+ */
+public final class PortValueChannel implements ReadableByteChannel {
+
+	/**
+	 * The default size, in bytes, of each block fetched from the server.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+	/**
+	 * The default number of blocks to keep in memory.
+	 */
+	public static final int DEFAULT_CACHE_BLOCKS = 16;
+
+	private final Run run;
+	private final URI uri;
+	private final long size;
+	private final int blockSize;
+	private final Map<Long, byte[]> blocks;
+
+	private long position;
+	private boolean open;
+
+	private long hits;
+	private long misses;
+
+	PortValueChannel(Run run, URI uri, long size, int blockSize,
+			final int cacheBlocks) {
+		if (blockSize < 1 || cacheBlocks < 1) {
+			throw new IllegalArgumentException(
+					"Block size and number of cached blocks must be at least 1.");
+		}
+
+		this.run = run;
+		this.uri = uri;
+		this.size = size;
+		this.blockSize = blockSize;
+		this.position = 0;
+		this.open = true;
+
+		// Access ordered, so the eldest entry is the least recently used.
+		this.blocks = new LinkedHashMap<Long, byte[]>(cacheBlocks + 1, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+				return size() > cacheBlocks;
+			}
+		};
+	}
+
+	/**
+	 * Read data from the current position into a buffer, moving the position
+	 * on by the number of bytes read.
+	 * 
+	 * @param dst
+	 *            the buffer to read into.
+	 * @return the number of bytes read, or -1 if the position is at or past
+	 *         the end of the value.
+	 * @throws ClosedChannelException
+	 *             if this channel has been closed.
+	 * @throws IOException
+	 *             if the data cannot be fetched from the server.
+	 */
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		int n = read(dst, position);
+		if (n > 0) {
+			position += n;
+		}
+
+		return n;
+	}
+
+	/**
+	 * Read data from the given position into a buffer. The position of this
+	 * channel is not changed.
+	 * 
+	 * @param dst
+	 *            the buffer to read into.
+	 * @param offset
+	 *            the position in the value to read from.
+	 * @return the number of bytes read, or -1 if the offset is at or past the
+	 *         end of the value.
+	 * @throws ClosedChannelException
+	 *             if this channel has been closed.
+	 * @throws IOException
+	 *             if the data cannot be fetched from the server.
+	 */
+	public synchronized int read(ByteBuffer dst, long offset)
+			throws IOException {
+		checkOpen();
+		if (offset < 0) {
+			throw new IllegalArgumentException("Offset (" + offset
+					+ ") must not be negative.");
+		}
+
+		if (offset >= size) {
+			return -1;
+		}
+
+		int count = 0;
+		while (dst.hasRemaining() && offset < size) {
+			long index = offset / blockSize;
+			byte[] block = getBlock(index);
+
+			int start = (int) (offset - (index * blockSize));
+			int length = Math.min(block.length - start, dst.remaining());
+			dst.put(block, start, length);
+
+			offset += length;
+			count += length;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Get the current position of this channel.
+	 * 
+	 * @return the current position.
+	 * @throws ClosedChannelException
+	 *             if this channel has been closed.
+	 */
+	public synchronized long position() throws ClosedChannelException {
+		checkOpen();
+
+		return position;
+	}
+
+	/**
+	 * Move this channel to a new position. A position past the end of the
+	 * value is allowed, but reads from it will return -1.
+	 * 
+	 * @param newPosition
+	 *            the new position.
+	 * @return this channel.
+	 * @throws ClosedChannelException
+	 *             if this channel has been closed.
+	 */
+	public synchronized PortValueChannel position(long newPosition)
+			throws ClosedChannelException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Position (" + newPosition
+					+ ") must not be negative.");
+		}
+
+		position = newPosition;
+
+		return this;
+	}
+
+	/**
+	 * Get the size of the value this channel reads from.
+	 * 
+	 * @return the size of the value, in bytes.
+	 * @throws ClosedChannelException
+	 *             if this channel has been closed.
+	 */
+	public synchronized long size() throws ClosedChannelException {
+		checkOpen();
+
+		return size;
+	}
+
+	/**
+	 * Get the number of reads that were served from a block already in
+	 * memory.
+	 * 
+	 * @return the number of cache hits.
+	 */
+	public synchronized long getCacheHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of blocks that have had to be fetched from the server.
+	 * 
+	 * @return the number of cache misses.
+	 */
+	public synchronized long getCacheMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Close this channel and drop any blocks held in memory.
+	 */
+	@Override
+	public synchronized void close() {
+		open = false;
+		blocks.clear();
+	}
+
+	private void checkOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/*
+	 * Get a block from the cache, fetching it from the server if it is not
+	 * there. The last block of a value may be shorter than the rest.
+	 */
+	private byte[] getBlock(long index) throws IOException {
+		byte[] block = blocks.get(index);
+		if (block != null) {
+			hits++;
+
+			return block;
+		}
+
+		misses++;
+		long start = index * blockSize;
+		long end = Math.min(start + blockSize, size) - 1;
+
+		block = run.getOutputData(uri, new LongRange(start, end));
+		if (block == null || block.length != (end - start + 1)) {
+			throw new IOException("Could not read bytes " + start + "-" + end
+					+ " of " + uri);
+		}
+
+		blocks.put(index, block);
+
+		return block;
+	}
+}
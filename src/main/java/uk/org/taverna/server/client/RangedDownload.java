@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.math.LongRange;
+
+import uk.org.taverna.server.client.util.BufferPool;
+
+/**
+ * Download a data value into a file as a number of byte ranges that are
+ * fetched concurrently, each over its own pooled connection, and written
+ * straight to their place in the file.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class RangedDownload {
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,
+					"Taverna Server ranged download");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	};
+
+	private RangedDownload() {
+	}
+
+	/**
+	 * Download a value into a file.
+	 * 
+	 * @param run
+	 *            the run that the value belongs to.
+	 * @param uri
+	 *            the location of the value.
+	 * @param size
+	 *            the size of the value in bytes.
+	 * @param file
+	 *            the file to write to.
+	 * @param chunkSize
+	 *            the size of each range in bytes.
+	 * @param parallelism
+	 *            the maximum number of ranges to fetch at the same time.
+	 * @throws IOException
+	 *             if any range cannot be fetched or written.
+	 */
+	static void download(final Run run, final URI uri, long size, File file,
+			long chunkSize, int parallelism) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			raf.setLength(size);
+			final FileChannel channel = raf.getChannel();
+
+			long chunks = (size + chunkSize - 1) / chunkSize;
+			ExecutorService executor = Executors.newFixedThreadPool(
+					(int) Math.min(parallelism, chunks), THREAD_FACTORY);
+
+			try {
+				List<Future<Void>> results = new ArrayList<Future<Void>>();
+				for (long start = 0; start < size; start += chunkSize) {
+					// LongRange is inclusive so the end is too long by one.
+					final LongRange range = new LongRange(start, Math.min(
+							start + chunkSize, size) - 1);
+
+					results.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws IOException {
+							fetch(run, uri, range, channel);
+
+							return null;
+						}
+					}));
+				}
+
+				for (Future<Void> result : results) {
+					waitFor(result);
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void fetch(Run run, URI uri, LongRange range,
+			FileChannel channel) throws IOException {
+		InputStream is = run.getOutputDataStream(uri, range);
+		if (is == null) {
+			throw new IOException("Could not read bytes " + range + " of "
+					+ uri);
+		}
+
+		byte[] buffer = BufferPool.acquire();
+		try {
+			long position = range.getMinimumLong();
+			long end = range.getMaximumLong() + 1;
+
+			while (position < end) {
+				int read = is.read(buffer, 0,
+						(int) Math.min(buffer.length, end - position));
+				if (read == -1) {
+					throw new EOFException("Only got up to byte " + position
+							+ " of range " + range + " of " + uri);
+				}
+
+				ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+				while (bytes.hasRemaining()) {
+					position += channel.write(bytes, position);
+				}
+			}
+		} finally {
+			BufferPool.release(buffer);
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/*
+	 * Wait for a range to be fetched and rethrow anything that went wrong.
+	 */
+	private static void waitFor(Future<Void> result) throws IOException {
+		try {
+			result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted during download.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new IOException(cause);
+		}
+	}
+}
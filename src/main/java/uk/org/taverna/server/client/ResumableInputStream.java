@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+import uk.org.taverna.server.client.connection.UnreadableResponseException;
+
+/**
+ * An input stream over a remote resource that keeps track of how many bytes
+ * it has delivered so that, if the underlying stream fails part way through,
+ * it can reopen the resource from the next byte and carry on as if nothing
+ * had happened.
+ * 
+ * Aborting the stream aborts the underlying stream, if it can be aborted,
+ * and stops it from being reopened.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class ResumableInputStream extends InputStream implements
+		ConnectionReleaseTrigger {
+
+	/*
+	 * Opens the resource at an offset from the start of the original stream.
+	 * Fails with an IOException or UnreadableResponseException if the
+	 * resource cannot be reached.
+	 */
+	interface Source {
+		InputStream open(long offset) throws IOException;
+	}
+
+	private final Source source;
+	private final int maxResumes;
+
+	private volatile InputStream stream;
+	private volatile boolean aborted;
+	private long position;
+	private int resumes;
+
+	/**
+	 * Create a resumable stream.
+	 * 
+	 * @param stream
+	 *            the already opened stream to start reading from.
+	 * @param source
+	 *            where to reopen the resource if the stream fails.
+	 * @param maxResumes
+	 *            the maximum number of times in a row to try to resume
+	 *            without any data being read.
+	 */
+	ResumableInputStream(InputStream stream, Source source, int maxResumes) {
+		this.stream = stream;
+		this.source = source;
+		this.maxResumes = maxResumes;
+		this.position = 0;
+		this.resumes = 0;
+		this.aborted = false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (true) {
+			try {
+				int b = stream.read();
+				if (b != -1) {
+					position++;
+					resumes = 0;
+				}
+
+				return b;
+			} catch (IOException e) {
+				resume(e);
+			}
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		while (true) {
+			try {
+				int read = stream.read(b, off, len);
+				if (read > 0) {
+					position += read;
+					resumes = 0;
+				}
+
+				return read;
+			} catch (IOException e) {
+				resume(e);
+			}
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		return stream.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+
+	@Override
+	public void releaseConnection() throws IOException {
+		close();
+	}
+
+	@Override
+	public void abortConnection() throws IOException {
+		aborted = true;
+
+		InputStream current = stream;
+		if (current instanceof ConnectionReleaseTrigger) {
+			((ConnectionReleaseTrigger) current).abortConnection();
+		}
+	}
+
+	/**
+	 * Get the number of bytes delivered by this stream so far.
+	 * 
+	 * @return the number of bytes read.
+	 */
+	long getPosition() {
+		return position;
+	}
+
+	private void resume(IOException cause) throws IOException {
+		IOUtils.closeQuietly(stream);
+
+		// A failure to reopen the resource counts as a failed attempt in the
+		// same way as a failed read.
+		while (true) {
+			if (aborted || resumes >= maxResumes) {
+				throw cause;
+			}
+			resumes++;
+
+			try {
+				stream = source.open(position);
+				break;
+			} catch (IOException e) {
+				cause = e;
+			} catch (UnreadableResponseException e) {
+				cause = new IOException(e);
+			}
+		}
+
+		// In case we were aborted while the resource was being reopened.
+		if (aborted) {
+			abortConnection();
+		}
+	}
+}
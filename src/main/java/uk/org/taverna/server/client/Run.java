@@ -33,25 +33,37 @@
 package uk.org.taverna.server.client;
 
 import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URI;
-import java.util.ArrayList;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import javax.xml.bind.DatatypeConverter;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.apache.commons.io.input.ClosedInputStream;
 import org.apache.commons.lang.math.LongRange;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 
 import uk.org.taverna.server.client.connection.AttributeNotFoundException;
 import uk.org.taverna.server.client.connection.MimeType;
+import uk.org.taverna.server.client.connection.ServerResponseException;
+import uk.org.taverna.server.client.connection.UnreadableResponseException;
 import uk.org.taverna.server.client.connection.UserCredentials;
 import uk.org.taverna.server.client.util.IOUtils;
 import uk.org.taverna.server.client.util.URIUtils;
@@ -82,38 +94,50 @@ public final class Run {
 	private static final String DEFAULT_KEYPAIR_TYPE = "pkcs12";
 	private static final String DEFAULT_CERTIFICATE_TYPE = "x509";
 
+	// Not defined in HttpURLConnection.
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
 	private final URI uri;
 	private final Server server;
 	private final String id;
-	private byte[] workflow;
-	private boolean baclavaIn;
+	// Set lazily by getWorkflow(), which may be called from several threads
+	// at once, so volatile.
+	private volatile String workflowDigest;
+	// Set from whichever thread finds out first, so volatile.
+	private volatile boolean baclavaIn;
 	private boolean baclavaOut;
 
 	private boolean deleted;
 
-	private RunResources resources;
+	// Fetched once on first use, possibly while a run is being started from
+	// several threads at once, so volatile.
+	private volatile RunResources resources;
 
 	private final UserCredentials credentials;
 
 	// Ports
-	private Map<String, InputPort> inputPorts = null;
+	private volatile Map<String, InputPort> inputPorts = null;
 	private Map<String, OutputPort> outputPorts = null;
 
+	// How long each phase of the last start took.
+	private final Map<StartPhase, Long> startLatencies;
+
 	/*
 	 * Create a Run instance. This will already have been created on the remote
 	 * server.
 	 */
-	private Run(URI uri, Server server, byte[] workflow,
+	private Run(URI uri, Server server, String workflowDigest,
 			UserCredentials credentials) {
 		this.uri = uri;
 		this.server = server;
 		this.id = URIUtils.extractFinalPathComponent(uri);
-		this.workflow = workflow;
+		this.workflowDigest = workflowDigest;
 		this.baclavaIn = false;
 		this.baclavaOut = false;
 
 		this.credentials = credentials;
 		resources = null;
+		startLatencies = new EnumMap<StartPhase, Long>(StartPhase.class);
 
 		this.deleted = false;
 	}
@@ -135,9 +159,21 @@ public final class Run {
 	 */
 	public static Run create(Server server, byte[] workflow,
 			UserCredentials credentials) {
+		String digest = WorkflowStore.digest(workflow);
+		server.getWorkflowStore().put(digest, workflow);
+
+		return create(server, workflow, digest, credentials);
+	}
+
+	/*
+	 * Create a run of a workflow that is already in the workflow store, so
+	 * that a batch of runs of the same workflow only digests it once.
+	 */
+	static Run create(Server server, byte[] workflow, String digest,
+			UserCredentials credentials) {
 		URI uri = server.initializeRun(workflow, credentials);
 
-		return new Run(uri, server, workflow, credentials);
+		return new Run(uri, server, digest, credentials);
 	}
 
 	/**
@@ -150,8 +186,10 @@ public final class Run {
 	 */
 	public static Run create(Server server, File workflow,
 			UserCredentials credentials) throws IOException {
-		return create(server, FileUtils.readFileToByteArray(workflow),
-				credentials);
+		URI uri = server.initializeRun(workflow, credentials);
+
+		// The workflow is streamed from disk so it is fetched back lazily.
+		return new Run(uri, server, null, credentials);
 	}
 
 	/**
@@ -175,11 +213,59 @@ public final class Run {
 	 * @return
 	 */
 	public Map<String, InputPort> getInputPorts() {
-		if (inputPorts == null) {
-			inputPorts = getInputPortInfo();
+		Map<String, InputPort> ports = inputPorts;
+		if (ports == null) {
+			// Only ever hand out one set of ports, or values set on another
+			// set would be lost.
+			synchronized (this) {
+				ports = inputPorts;
+				if (ports == null) {
+					ports = getInputPortInfo();
+					inputPorts = ports;
+				}
+			}
 		}
 
-		return inputPorts;
+		return ports;
+	}
+
+	/**
+	 * Get the input ports of this Run without blocking. The result is cached
+	 * in the same way as {@link #getInputPorts()}.
+	 * 
+	 * @param callback
+	 *            called when the ports are available, may be null.
+	 * @return a future for the map of port name to input port.
+	 */
+	public Future<Map<String, InputPort>> getInputPortsAsync(
+			FutureCallback<Map<String, InputPort>> callback) {
+		Map<String, InputPort> known = inputPorts;
+		if (known != null) {
+			return completed(known, callback);
+		}
+
+		AsyncTransform<InputStream, Map<String, InputPort>> transform = new AsyncTransform<InputStream, Map<String, InputPort>>(
+				callback) {
+			@Override
+			Map<String, InputPort> transform(InputStream stream) {
+				Map<String, InputPort> ports = server.getXMLReader()
+						.readInputPortDescription(Run.this, stream);
+
+				synchronized (Run.this) {
+					if (inputPorts == null) {
+						inputPorts = ports;
+					}
+
+					return inputPorts;
+				}
+			}
+		};
+
+		server.readResourceAsStreamAsync(
+				getLink(ResourceLabel.EXPECTED_INPUTS), MimeType.XML, null,
+				credentials, transform);
+
+		return transform.future;
 	}
 
 	/**
@@ -203,6 +289,37 @@ public final class Run {
 		return outputPorts;
 	}
 
+	/**
+	 * Get the output ports of this Run without blocking. The result is cached
+	 * in the same way as {@link #getOutputPorts()}.
+	 * 
+	 * @param callback
+	 *            called when the ports are available, may be null.
+	 * @return a future for the map of port name to output port.
+	 */
+	public Future<Map<String, OutputPort>> getOutputPortsAsync(
+			FutureCallback<Map<String, OutputPort>> callback) {
+		if (outputPorts != null) {
+			return completed(outputPorts, callback);
+		}
+
+		AsyncTransform<InputStream, Map<String, OutputPort>> transform = new AsyncTransform<InputStream, Map<String, OutputPort>>(
+				callback) {
+			@Override
+			Map<String, OutputPort> transform(InputStream stream) {
+				outputPorts = server.getXMLReader().readOutputPortDescription(
+						Run.this, stream);
+
+				return outputPorts;
+			}
+		};
+
+		server.readResourceAsStreamAsync(getLink(ResourceLabel.OUTPUT),
+				MimeType.XML, null, credentials, transform);
+
+		return transform.future;
+	}
+
 	/**
 	 * 
 	 * @param name
@@ -212,6 +329,23 @@ public final class Run {
 		return getOutputPorts().get(name);
 	}
 
+	/**
+	 * Stream the output port descriptions of this Run from the server, calling
+	 * the supplied visitor for each port and value as it is parsed. Unlike
+	 * {@link #getOutputPorts()} the port values are not kept in memory so this
+	 * is suitable for runs that produce very large lists of outputs.
+	 * 
+	 * @param visitor
+	 *            the visitor to call for each port and value.
+	 * @see OutputPortVisitor
+	 */
+	public void visitOutputPorts(OutputPortVisitor visitor) {
+		XMLReader reader = server.getXMLReader();
+
+		reader.readOutputPortDescription(this, getLink(ResourceLabel.OUTPUT),
+				credentials, visitor);
+	}
+
 	/**
 	 * Upload data to a file in this Run instance's workspace on the server.
 	 * 
@@ -487,13 +621,38 @@ public final class Run {
 				throw new AttributeNotFoundException(baclavaLink);
 			}
 
-			return server.readResourceAsStream(baclavaLink, MimeType.BYTES,
-					null, credentials);
+			return getResumableStream(baclavaLink, MimeType.BYTES, null);
 		} else {
 			throw new RunStateException(rs, RunStatus.FINISHED);
 		}
 	}
 
+	/**
+	 * Get the baclava output data of this run in a read-only buffer that is
+	 * not on the Java heap. The data is spooled to a temporary file which is
+	 * then mapped into memory, and removed. The Run must have been set to
+	 * output in baclava format before it is started.
+	 * 
+	 * A single buffer can map at most {@link IOUtils#MAX_MAP_SIZE} bytes
+	 * (2GB). The download is stopped as soon as the data passes that limit;
+	 * use {@link #writeBaclavaOutputToFile(File)} for larger documents.
+	 * 
+	 * @return a read-only buffer over the baclava data.
+	 * @throws IOException
+	 *             if the data is too large to map, or cannot be downloaded,
+	 *             spooled or mapped.
+	 * @see #getBaclavaOutput()
+	 * @see #requestBaclavaOutput()
+	 */
+	public MappedByteBuffer mapBaclavaOutput() throws IOException {
+		InputStream is = getBaclavaOutputStream();
+		try {
+			return IOUtils.mapStream(is);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
 	/**
 	 * Writes the baclava output data of this run directly to a file. The data
 	 * is not loaded into memory, it is streamed directly to the file. The file
@@ -524,6 +683,85 @@ public final class Run {
 		}
 	}
 
+	/**
+	 * Writes the baclava output data of this run to a stream without loading
+	 * it into memory. The stream is not closed. The Run must have been set to
+	 * output in baclava format before it is started.
+	 * 
+	 * @param stream
+	 *            the stream to write to.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if there is any I/O error.
+	 * @see #getBaclavaOutputStream()
+	 * @see #requestBaclavaOutput()
+	 */
+	public long writeBaclavaOutputTo(OutputStream stream) throws IOException {
+		InputStream is = getBaclavaOutputStream();
+		try {
+			return IOUtils.copy(is, stream);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Writes the baclava output data of this run to a channel, such as a
+	 * socket, without loading it into memory. The channel is not closed. The
+	 * Run must have been set to output in baclava format before it is
+	 * started.
+	 * 
+	 * @param channel
+	 *            the channel to write to.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if there is any I/O error.
+	 * @see #getBaclavaOutputStream()
+	 * @see #requestBaclavaOutput()
+	 */
+	public long writeBaclavaOutputTo(WritableByteChannel channel)
+			throws IOException {
+		InputStream is = getBaclavaOutputStream();
+		try {
+			return IOUtils.copy(is, channel);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Writes the baclava output data of this run directly to a file, carrying
+	 * on from the end of the file if it holds a partial copy from an earlier
+	 * attempt. If the file does not exist it is created.
+	 * 
+	 * The Run must have been set to output in baclava format before it is
+	 * started.
+	 * 
+	 * @param file
+	 *            the file to write to.
+	 * @throws FileNotFoundException
+	 *             if the file is a directory rather than a regular file,
+	 *             does not exist but cannot be created, or cannot be opened
+	 *             for any other reason.
+	 * @throws IOException
+	 *             if there is any I/O error.
+	 * @see #writeBaclavaOutputToFile(File)
+	 */
+	public void resumeBaclavaOutputToFile(File file) throws IOException {
+		RunStatus rs = getStatus();
+		if (rs == RunStatus.FINISHED) {
+			URI baclavaLink = URIUtils.appendToPath(
+					getLink(ResourceLabel.WDIR), BACLAVA_OUT_FILE);
+			if (!baclavaOut) {
+				throw new AttributeNotFoundException(baclavaLink);
+			}
+
+			resumeToFile(baclavaLink, MimeType.BYTES, -1, file);
+		} else {
+			throw new RunStateException(rs, RunStatus.FINISHED);
+		}
+	}
+
 	/**
 	 * Get the id of this run.
 	 * 
@@ -533,6 +771,10 @@ public final class Run {
 		return id;
 	}
 
+	UserCredentials getCredentials() {
+		return credentials;
+	}
+
 	/**
 	 * Get the owner of this run.
 	 * 
@@ -570,6 +812,32 @@ public final class Run {
 		}
 	}
 
+	/**
+	 * Get the status of this Run without blocking.
+	 * 
+	 * @param callback
+	 *            called when the status is available, may be null.
+	 * @return a future for the status of this Run.
+	 */
+	public Future<RunStatus> getStatusAsync(FutureCallback<RunStatus> callback) {
+		if (deleted) {
+			return completed(RunStatus.DELETED, callback);
+		}
+
+		AsyncTransform<byte[], RunStatus> transform = new AsyncTransform<byte[], RunStatus>(
+				callback) {
+			@Override
+			RunStatus transform(byte[] status) {
+				return RunStatus.fromString(new String(status));
+			}
+		};
+
+		server.readResourceAsBytesAsync(getLink(ResourceLabel.STATUS),
+				MimeType.TEXT, null, credentials, transform);
+
+		return transform.future;
+	}
+
 	/**
 	 * Is this Run initialized?
 	 * 
@@ -605,37 +873,82 @@ public final class Run {
 	 * Start this Run running on the server. The Run must not be already
 	 * running, or finished.
 	 * 
+	 * Input files are uploaded and input ports are set with several requests
+	 * in flight at once, up to the number set by
+	 * {@link uk.org.taverna.server.client.connection.params.ConnectionPNames#START_PARALLELISM}
+	 * . Ports that were set by an earlier attempt to start this Run are not
+	 * set again unless they have been changed.
+	 * 
 	 * @throws IOException
+	 * @see #getStartLatency(StartPhase)
 	 */
 	public void start() throws IOException {
-		RunStatus rs = getStatus();
-		if (rs != RunStatus.INITIALIZED) {
-			throw new RunStateException(rs, RunStatus.INITIALIZED);
-		}
+		startLatencies.clear();
+		RunStarter.start(this, server.getStartParallelism(), startLatencies);
+	}
 
-		// set all the inputs
-		if (!isBaclavaInput()) {
-			setAllInputs();
-		}
+	/**
+	 * Get how long a phase of starting this Run took the last time it was
+	 * started by this Run instance.
+	 * 
+	 * @param phase
+	 *            the phase to get the time for.
+	 * @return the time taken in milliseconds, or -1 if the last start did not
+	 *         reach that phase.
+	 */
+	public long getStartLatency(StartPhase phase) {
+		Long latency = startLatencies.get(phase);
 
-		server.updateResource(getLink(ResourceLabel.STATUS),
-				RunStatus.RUNNING.status, credentials);
+		return latency == null ? -1 : latency;
 	}
 
 	/**
 	 * Get the workflow of this Run as a String.
 	 * 
+	 * Workflows are shared between all the runs of the same workflow and
+	 * the array returned must not be modified. If memory is short the
+	 * workflow may be dropped, in which case it is fetched from the server
+	 * again the next time it is asked for.
+	 * 
 	 * @return the workflow of this Run as a String.
 	 */
 	public byte[] getWorkflow() {
+		WorkflowStore store = server.getWorkflowStore();
+		String digest = workflowDigest;
+		byte[] workflow = null;
+
+		if (digest != null) {
+			workflow = store.get(digest);
+		}
+
 		if (workflow == null) {
-			workflow = server.readResourceAsBytes(
-					getLink(ResourceLabel.WORKFLOW), MimeType.XML, credentials);
+			workflow = readWorkflow();
+			digest = WorkflowStore.digest(workflow);
+			workflow = store.put(digest, workflow);
+			workflowDigest = digest;
 		}
 
 		return workflow;
 	}
 
+	/*
+	 * Read the workflow as a stream so that it does not also end up in the
+	 * response cache, where there would be a copy for every run.
+	 */
+	private byte[] readWorkflow() {
+		URI uri = getLink(ResourceLabel.WORKFLOW);
+		InputStream is = server.readResourceAsStream(uri, MimeType.XML, null,
+				credentials);
+
+		try {
+			return IOUtils.toByteArray(is, -1);
+		} catch (IOException e) {
+			throw new UnreadableResponseException(uri, e);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
 	/**
 	 * Get the expiry time of this Run as a Date object.
 	 * 
@@ -707,6 +1020,90 @@ public final class Run {
 				credentials);
 	}
 
+	/**
+	 * Get a reader over the console output of the underlying Taverna Server
+	 * process, decoding it with the given character set as it is downloaded.
+	 * The output is never held whole in memory, or in the response cache, so
+	 * this is suitable for very large console logs.
+	 * 
+	 * <b>Note:</b> You are responsible for closing the reader once you have
+	 * finished with it. Not doing so may prevent further use of the
+	 * underlying network connection.
+	 * 
+	 * @param charset
+	 *            the character set the console output is encoded in.
+	 * @return a reader over the console output.
+	 * @since 0.9.0
+	 * @see #getConsoleOutput()
+	 */
+	public BufferedReader getConsoleOutputReader(Charset charset) {
+		return getConsoleReader(ResourceLabel.STDOUT, charset);
+	}
+
+	/**
+	 * Get a reader over the console errors of the underlying Taverna Server
+	 * process, decoding them with the given character set as they are
+	 * downloaded. The errors are never held whole in memory, or in the
+	 * response cache.
+	 * 
+	 * <b>Note:</b> You are responsible for closing the reader once you have
+	 * finished with it. Not doing so may prevent further use of the
+	 * underlying network connection.
+	 * 
+	 * @param charset
+	 *            the character set the console errors are encoded in.
+	 * @return a reader over the console errors.
+	 * @since 0.9.0
+	 * @see #getConsoleError()
+	 */
+	public BufferedReader getConsoleErrorReader(Charset charset) {
+		return getConsoleReader(ResourceLabel.STDERR, charset);
+	}
+
+	/**
+	 * Get an iterator over the lines of console output of the underlying
+	 * Taverna Server process. Only the current line is held in memory.
+	 * 
+	 * <b>Note:</b> You are responsible for closing the iterator, with
+	 * {@link LineIterator#close()}, if you do not read it to the end.
+	 * 
+	 * @param charset
+	 *            the character set the console output is encoded in.
+	 * @return an iterator over the lines of console output.
+	 * @since 0.9.0
+	 */
+	public LineIterator getConsoleOutputLines(Charset charset) {
+		return new LineIterator(getConsoleOutputReader(charset));
+	}
+
+	/**
+	 * Get an iterator over the lines of console errors of the underlying
+	 * Taverna Server process. Only the current line is held in memory.
+	 * 
+	 * <b>Note:</b> You are responsible for closing the iterator, with
+	 * {@link LineIterator#close()}, if you do not read it to the end.
+	 * 
+	 * @param charset
+	 *            the character set the console errors are encoded in.
+	 * @return an iterator over the lines of console errors.
+	 * @since 0.9.0
+	 */
+	public LineIterator getConsoleErrorLines(Charset charset) {
+		return new LineIterator(getConsoleErrorReader(charset));
+	}
+
+	/*
+	 * Console output can be very large. It is read as a stream so it is never
+	 * buffered whole in the response cache.
+	 */
+	private BufferedReader getConsoleReader(ResourceLabel label,
+			Charset charset) {
+		InputStream is = server.readResourceAsStream(getLink(label),
+				MimeType.TEXT, null, credentials);
+
+		return new BufferedReader(new InputStreamReader(is, charset));
+	}
+
 	/**
 	 * Get the time that this Run was created as a Date object.
 	 * 
@@ -1142,8 +1539,7 @@ public final class Run {
 		if (rs == RunStatus.FINISHED) {
 			URI uri = URIUtils.appendToPath(getLink(ResourceLabel.WDIR), "out");
 
-			return server.readResourceAsStream(uri, MimeType.ZIP, null,
-					credentials);
+			return getResumableStream(uri, MimeType.ZIP, null);
 		} else {
 			throw new RunStateException(rs, RunStatus.FINISHED);
 		}
@@ -1174,6 +1570,76 @@ public final class Run {
 		}
 	}
 
+	/**
+	 * Writes all the output data of this run to a stream in zip format without
+	 * loading it into memory. The stream is not closed.
+	 * 
+	 * @param stream
+	 *            the stream to write to.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if there is any I/O error.
+	 * @see #getOutputZipStream()
+	 */
+	public long writeOutputZipTo(OutputStream stream) throws IOException {
+		InputStream is = getOutputZipStream();
+		try {
+			return IOUtils.copy(is, stream);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Writes all the output data of this run to a channel, such as a socket,
+	 * in zip format without loading it into memory. The channel is not
+	 * closed.
+	 * 
+	 * @param channel
+	 *            the channel to write to.
+	 * @return the number of bytes written.
+	 * @throws IOException
+	 *             if there is any I/O error.
+	 * @see #getOutputZipStream()
+	 */
+	public long writeOutputZipTo(WritableByteChannel channel)
+			throws IOException {
+		InputStream is = getOutputZipStream();
+		try {
+			return IOUtils.copy(is, channel);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Writes all the output data of this run directly to a file in zip
+	 * format, carrying on from the end of the file if it holds a partial copy
+	 * from an earlier attempt. If the file does not exist it is created. The
+	 * server must support ranged requests on the zip for an existing file to
+	 * be resumed.
+	 * 
+	 * @param file
+	 *            the file to write to.
+	 * @throws FileNotFoundException
+	 *             if the file is a directory rather than a regular file,
+	 *             does not exist but cannot be created, or cannot be opened
+	 *             for any other reason.
+	 * @throws IOException
+	 *             if there is any I/O error.
+	 * @see #writeOutputToZipFile(File)
+	 */
+	public void resumeOutputToZipFile(File file) throws IOException {
+		RunStatus rs = getStatus();
+		if (rs == RunStatus.FINISHED) {
+			URI uri = URIUtils.appendToPath(getLink(ResourceLabel.WDIR), "out");
+
+			resumeToFile(uri, MimeType.ZIP, -1, file);
+		} else {
+			throw new RunStateException(rs, RunStatus.FINISHED);
+		}
+	}
+
 	/**
 	 * Create a directory in the workspace of this Run. At present you can only
 	 * create a directory one level deep.
@@ -1198,32 +1664,7 @@ public final class Run {
 	 * Set all the inputs on the server. The inputs must have been set prior to
 	 * this call using the InputPort API or a runtime exception is thrown.
 	 */
-	private void setAllInputs() throws IOException {
-		List<String> missingPorts = new ArrayList<String>();
-
-		for (InputPort port : getInputPorts().values()) {
-			if (!port.isSet()) {
-				missingPorts.add(port.getName());
-			} else {
-				if (port.isFile()) {
-					// If we're using a local file upload it first then set the
-					// port to use a remote file.
-					if (!port.isRemoteFile()) {
-						String file = uploadFile(port.getFile());
-						port.setRemoteFile(file);
-					}
-				}
-
-				setInputPort(port);
-			}
-		}
-
-		if (!missingPorts.isEmpty()) {
-			throw new RunInputsNotSetException(id, missingPorts);
-		}
-	}
-
-	private void setInputPort(InputPort port) {
+	void setInputPort(InputPort port) {
 		URI path = URIUtils.appendToPath(getLink(ResourceLabel.INPUT),
 				"/input/" + port.getName());
 		byte[] value;
@@ -1237,13 +1678,33 @@ public final class Run {
 		server.updateResource(path, value, credentials);
 	}
 
-	private RunResources getRunResources() {
-		if (resources == null) {
-			resources = server.getXMLReader()
-					.readRunResources(uri, credentials);
+	/*
+	 * Whether this run is already known to be using baclava for its inputs,
+	 * without asking the server.
+	 */
+	boolean isBaclavaInputKnown() {
+		return baclavaIn;
+	}
+
+	void setRunning() {
+		server.updateResource(getLink(ResourceLabel.STATUS),
+				RunStatus.RUNNING.status, credentials);
+	}
+
+	RunResources getRunResources() {
+		RunResources links = resources;
+		if (links == null) {
+			synchronized (this) {
+				links = resources;
+				if (links == null) {
+					links = server.getXMLReader().readRunResources(uri,
+							credentials);
+					resources = links;
+				}
+			}
 		}
 
-		return resources;
+		return links;
 	}
 
 	private Map<String, InputPort> getInputPortInfo() {
@@ -1265,12 +1726,116 @@ public final class Run {
 				credentials);
 	}
 
-	InputStream getOutputDataStream(URI uri, LongRange range) {
-		return server.readResourceAsStream(uri, MimeType.BYTES, range,
+	Future<byte[]> getOutputDataAsync(URI uri, LongRange range,
+			FutureCallback<byte[]> callback) {
+		return server.readResourceAsBytesAsync(uri, MimeType.BYTES, range,
+				credentials, callback);
+	}
+
+	InputStream getBufferedOutputDataStream(URI uri, LongRange range) {
+		return server.readResourceAsBufferedStream(uri, MimeType.BYTES, range,
 				credentials);
 	}
 
+	InputStream getOutputDataStream(URI uri, LongRange range) {
+		return getResumableStream(uri, MimeType.BYTES, range);
+	}
+
+	/*
+	 * Open a stream that carries on from the next byte if the connection
+	 * drops part way through. Ranged streams are resumed within their range.
+	 */
+	private InputStream getResumableStream(final URI uri, final MimeType type,
+			LongRange range) {
+		final long start = (range == null) ? 0 : range.getMinimumLong();
+		final long end = (range == null) ? Long.MAX_VALUE : range
+				.getMaximumLong();
+
+		InputStream stream;
+		if (range == null) {
+			stream = server.readResourceAsStream(uri, type, null, credentials);
+		} else {
+			stream = openFrom(uri, type, start, end);
+		}
+
+		int maxResumes = server.getDownloadMaxResumes();
+		if (stream == null || maxResumes < 1) {
+			return stream;
+		}
+
+		return new ResumableInputStream(stream,
+				new ResumableInputStream.Source() {
+					@Override
+					public InputStream open(long offset) {
+						return openFrom(uri, type, start + offset, end);
+					}
+				}, maxResumes);
+	}
+
+	/*
+	 * Open a resource part way through. If there is nothing left to read an
+	 * empty stream is returned.
+	 */
+	private InputStream openFrom(URI uri, MimeType type, long start, long end) {
+		if (start > end) {
+			return ClosedInputStream.CLOSED_INPUT_STREAM;
+		}
+
+		try {
+			return server.readResourceAsStream(uri, type, new LongRange(
+					start, end), credentials);
+		} catch (ServerResponseException e) {
+			if (e.getStatusCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+				return ClosedInputStream.CLOSED_INPUT_STREAM;
+			}
+
+			throw e;
+		}
+	}
+
+	/*
+	 * Download a resource to a file, carrying on from the end of the file if
+	 * it has already been partially downloaded. A size of -1 means that the
+	 * size of the resource is not known in advance.
+	 */
+	void resumeToFile(URI uri, MimeType type, long size, File file)
+			throws IOException {
+		long offset = file.isFile() ? file.length() : 0;
+
+		if (size >= 0) {
+			if (file.isFile() && offset == size) {
+				return;
+			}
+
+			// The file is bigger than the resource so it is not a partial copy.
+			if (offset > size) {
+				offset = 0;
+			}
+		}
+
+		InputStream is;
+		if (offset == 0) {
+			is = getResumableStream(uri, type, null);
+		} else {
+			is = getResumableStream(uri, type, new LongRange(offset,
+					Long.MAX_VALUE));
+		}
+
+		try {
+			IOUtils.writeStreamToFile(is, file, offset > 0);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
 	private URI getLink(ResourceLabel key) {
 		return getRunResources().get(key);
 	}
+
+	private static <T> Future<T> completed(T value, FutureCallback<T> callback) {
+		BasicFuture<T> future = new BasicFuture<T>(callback);
+		future.completed(value);
+
+		return future;
+	}
 }
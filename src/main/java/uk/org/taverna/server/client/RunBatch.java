@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import uk.org.taverna.server.client.connection.UserCredentials;
+
+/**
+ * Create a number of runs of the same workflow, with several creation
+ * requests in flight at once, each over its own pooled connection.
+ * 
+ * A failure to create one run does not stop the others. Once the server says
+ * that it is at capacity, though, no more creations are started as they would
+ * only fail too; the ones already in flight are allowed to finish. If the
+ * batch is interrupted no more creations are started and the runs that have
+ * not been reported yet are reported as cancelled.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class RunBatch {
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Taverna Server run creation");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	};
+
+	private RunBatch() {
+	}
+
+	/*
+	 * Create the runs, telling the callback, if there is one, about each run
+	 * as it is created and each one that fails. Runs that are not attempted
+	 * because the server is full are reported as cancelled. Returns the runs
+	 * that were created, in the order they were created.
+	 * 
+	 * If the thread is interrupted the outstanding runs are reported as
+	 * cancelled, the interrupt status is set again and a
+	 * CancellationException is thrown. An Error thrown while creating a run
+	 * is rethrown.
+	 */
+	static List<Run> create(final Server server, final byte[] workflow,
+			int count, final UserCredentials credentials, int parallelism,
+			FutureCallback<Run> callback) {
+		if (count < 0 || parallelism < 1) {
+			throw new IllegalArgumentException("Count must not be negative "
+					+ "and parallelism must be at least 1.");
+		}
+
+		List<Run> created = new ArrayList<Run>(count);
+		if (count == 0) {
+			return created;
+		}
+
+		// Every run shares the one stored copy of the workflow.
+		final String digest = WorkflowStore.digest(workflow);
+		server.getWorkflowStore().put(digest, workflow);
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(parallelism, count), THREAD_FACTORY);
+		CompletionService<Run> completion = new ExecutorCompletionService<Run>(
+				executor);
+		final AtomicBoolean full = new AtomicBoolean(false);
+		int reported = 0;
+
+		try {
+			for (int i = 0; i < count; i++) {
+				completion.submit(new Callable<Run>() {
+					@Override
+					public Run call() {
+						if (full.get()) {
+							return null;
+						}
+
+						try {
+							Run run = Run.create(server, workflow, digest,
+									credentials);
+							server.cacheRun(run, credentials);
+
+							return run;
+						} catch (ServerAtCapacityException e) {
+							full.set(true);
+							throw e;
+						}
+					}
+				});
+			}
+
+			for (; reported < count; reported++) {
+				Future<Run> result = completion.take();
+
+				Run run;
+				try {
+					run = result.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+
+					if (callback != null) {
+						callback.failed(toException(e.getCause()));
+					}
+					continue;
+				}
+
+				if (run == null) {
+					if (callback != null) {
+						callback.cancelled();
+					}
+				} else {
+					created.add(run);
+					if (callback != null) {
+						callback.completed(run);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			if (callback != null) {
+				for (int i = reported; i < count; i++) {
+					callback.cancelled();
+				}
+			}
+
+			throw new CancellationException("Interrupted while creating runs, "
+					+ created.size() + " of " + count + " were created.");
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return created;
+	}
+
+	/*
+	 * Create the runs on a thread of their own. Cancelling the returned future
+	 * with mayInterruptIfRunning set interrupts that thread, which stops the
+	 * batch.
+	 */
+	static Future<List<Run>> createAsync(final Server server,
+			final byte[] workflow, final int count,
+			final UserCredentials credentials, final int parallelism,
+			final FutureCallback<Run> callback) {
+		final BatchFuture future = new BatchFuture();
+
+		Thread batch = new Thread("Taverna Server run batch") {
+			@Override
+			public void run() {
+				try {
+					future.completed(create(server, workflow, count,
+							credentials, parallelism, callback));
+				} catch (RuntimeException e) {
+					future.failed(e);
+				} catch (Error e) {
+					future.failed(new ExecutionException(e));
+					throw e;
+				}
+			}
+		};
+		batch.setDaemon(true);
+		future.batch = batch;
+		batch.start();
+
+		return future;
+	}
+
+	private static Exception toException(Throwable cause) {
+		if (cause instanceof Exception) {
+			return (Exception) cause;
+		}
+
+		return new ExecutionException(cause);
+	}
+
+	private static final class BatchFuture extends BasicFuture<List<Run>> {
+
+		private volatile Thread batch;
+
+		BatchFuture() {
+			super(null);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+			Thread current = batch;
+			if (cancelled && mayInterruptIfRunning && current != null) {
+				current.interrupt();
+			}
+
+			return cancelled;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import uk.org.taverna.server.client.connection.UserCredentials;
+import uk.org.taverna.server.client.xml.FeedEntry;
+
+/**
+ * Reads the Atom event feed of a server for one user, remembering which
+ * entries have already been seen so that each read only returns new ones,
+ * and works out which runs the entries are about.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class RunEventFeed {
+
+	// The events that can be trusted to say what a run is doing, by title.
+	private static final Map<String, RunStatus> EVENTS;
+	static {
+		EVENTS = new HashMap<String, RunStatus>();
+		EVENTS.put("run started", RunStatus.RUNNING);
+		EVENTS.put("run operating", RunStatus.RUNNING);
+		EVENTS.put("run finished", RunStatus.FINISHED);
+		EVENTS.put("run finished executing", RunStatus.FINISHED);
+		EVENTS.put("run completed", RunStatus.FINISHED);
+		EVENTS.put("run stopped", RunStatus.STOPPED);
+		EVENTS.put("run deleted", RunStatus.DELETED);
+		EVENTS.put("run destroyed", RunStatus.DELETED);
+	}
+
+	private final Server server;
+	private final UserCredentials credentials;
+
+	// The ids of the entries seen in the last read, null before the first.
+	private Set<String> seen;
+	private boolean gap;
+
+	// The number of reads in a row that have failed.
+	private int failures;
+
+	RunEventFeed(Server server, UserCredentials credentials) {
+		this.server = server;
+		this.credentials = credentials;
+		this.seen = null;
+		this.gap = false;
+		this.failures = 0;
+	}
+
+	/*
+	 * A feed only carries events for runs on its server that belong to the
+	 * user it is read as.
+	 */
+	boolean covers(Run run) {
+		return run.getServer() == server
+				&& run.getCredentials() == credentials;
+	}
+
+	/*
+	 * Read the entries that have appeared since the last read. The first read
+	 * only records what is already there, and reports a gap. Returns null if
+	 * the server does not have a feed.
+	 */
+	synchronized List<FeedEntry> read() {
+		List<FeedEntry> entries = server.readFeed(credentials);
+		if (entries == null) {
+			return null;
+		}
+		failures = 0;
+
+		Set<String> ids = new HashSet<String>();
+		List<FeedEntry> fresh = new ArrayList<FeedEntry>();
+		boolean overlap = false;
+		for (FeedEntry entry : entries) {
+			ids.add(entry.getId());
+			if (seen != null && seen.contains(entry.getId())) {
+				overlap = true;
+			} else {
+				fresh.add(entry);
+			}
+		}
+
+		// If nothing we saw last time is still there, we may have missed
+		// entries that have since dropped off the end of the feed. Anything
+		// that happened before the first read is unknown too.
+		boolean first = (seen == null);
+		gap = first || (!seen.isEmpty() && !overlap);
+
+		seen = ids;
+
+		return first ? Collections.<FeedEntry> emptyList() : fresh;
+	}
+
+	/*
+	 * Did the last read find that entries might have been missed?
+	 */
+	synchronized boolean hasGap() {
+		return gap;
+	}
+
+	/*
+	 * Record that a read has failed and return how many have now failed in a
+	 * row.
+	 */
+	synchronized int failed() {
+		return ++failures;
+	}
+
+	/*
+	 * Is an entry about the given run? It is if it links to the run or
+	 * mentions its identifier. Relative links are taken to be relative to the
+	 * run, which is on the same server as the feed.
+	 */
+	static boolean isAbout(FeedEntry entry, Run run) {
+		String uri = trim(run.getURI());
+		for (URI link : entry.getLinks()) {
+			if (trim(run.getURI().resolve(link)).equals(uri)) {
+				return true;
+			}
+		}
+
+		String id = run.getIdentifier();
+
+		return entry.getTitle().contains(id) || entry.getContent().contains(id);
+	}
+
+	/*
+	 * Work out the status a run has moved to from the title of an entry about
+	 * it, given the identifier of the run. Only titles that are nothing but a
+	 * known event, such as "Run finished" or "Workflow run abc started", are
+	 * trusted. Returns null for anything else, in which case the run should be
+	 * asked directly.
+	 */
+	static RunStatus getStatus(FeedEntry entry, String id) {
+		String title = entry.getTitle().replace(id, " ")
+				.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z]+", " ")
+				.trim();
+		if (title.startsWith("workflow ")) {
+			title = title.substring("workflow ".length());
+		}
+
+		return EVENTS.get(title);
+	}
+
+	private static String trim(URI uri) {
+		String s = uri.toString();
+
+		return s.endsWith("/") ? s.substring(0, s.length() - 1) : s;
+	}
+}
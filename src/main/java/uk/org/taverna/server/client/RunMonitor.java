@@ -0,0 +1,779 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import uk.org.taverna.server.client.connection.UserCredentials;
+import uk.org.taverna.server.client.xml.FeedEntry;
+
+/**
+ * Watch the status of many runs at once using a small pool of threads.
+ * 
+ * Each run is polled on its own schedule. A run is polled quickly when it is
+ * first watched and whenever its status changes, and then less and less often
+ * while its status stays the same, up to a maximum interval. Watching the
+ * same run more than once, even through different {@link Run} objects,
+ * shares a single poll. Polling stops when a run finishes, is stopped or
+ * deleted, or when nothing is waiting on it any more.
+ * 
+ * Runs can instead be followed through the Atom event feed of their server,
+ * which costs one request each time it is read however many runs it covers.
+ * See {@link #addFeed(Server, UserCredentials)}.
+ * 
+ * All methods in this class are thread-safe.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class RunMonitor {
+
+	/**
+	 * The default number of threads used to poll runs.
+	 */
+	public static final int DEFAULT_THREADS = 2;
+
+	/**
+	 * The default shortest time, in milliseconds, between polls of a run.
+	 */
+	public static final long DEFAULT_MIN_INTERVAL = 1000;
+
+	/**
+	 * The default longest time, in milliseconds, between polls of a run.
+	 */
+	public static final long DEFAULT_MAX_INTERVAL = 60000;
+
+	// How much longer to wait each time the status has not changed.
+	private static final double BACKOFF = 1.5;
+
+	// How many reads of a feed in a row may fail before it is given up on.
+	private static final int MAX_FEED_FAILURES = 5;
+
+	/*
+	 * Where the status of a run comes from, so that tests can stand in for a
+	 * server.
+	 */
+	interface StatusSource {
+		RunStatus getStatus(Run run);
+	}
+
+	private static final StatusSource SERVER = new StatusSource() {
+		@Override
+		public RunStatus getStatus(Run run) {
+			return run.getStatus();
+		}
+	};
+
+	private final ScheduledExecutorService scheduler;
+	private final StatusSource source;
+	private final long minInterval;
+	private final long maxInterval;
+	private final ConcurrentMap<URI, Watch> watches;
+	private final Map<RunEventFeed, ScheduledFuture<?>> feeds;
+
+	private final AtomicLong statusPolls;
+	private final AtomicLong feedReads;
+
+	/**
+	 * Create a run monitor with the default number of threads and polling
+	 * intervals.
+	 */
+	public RunMonitor() {
+		this(DEFAULT_THREADS, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+	}
+
+	/**
+	 * Create a run monitor.
+	 * 
+	 * @param threads
+	 *            the number of threads to poll runs with.
+	 * @param minInterval
+	 *            the shortest time, in milliseconds, between polls of a run.
+	 * @param maxInterval
+	 *            the longest time, in milliseconds, between polls of a run.
+	 */
+	public RunMonitor(int threads, long minInterval, long maxInterval) {
+		this(threads, minInterval, maxInterval, SERVER);
+	}
+
+	RunMonitor(int threads, long minInterval, long maxInterval,
+			StatusSource source) {
+		if (threads < 1 || minInterval < 1 || maxInterval < minInterval) {
+			throw new IllegalArgumentException(
+					"Threads and intervals must be at least 1 and the maximum interval must not be less than the minimum.");
+		}
+
+		this.source = source;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.watches = new ConcurrentHashMap<URI, Watch>();
+		this.feeds = new HashMap<RunEventFeed, ScheduledFuture<?>>();
+		this.statusPolls = new AtomicLong(0);
+		this.feedReads = new AtomicLong(0);
+
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+				threads, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"Taverna Server run monitor");
+						thread.setDaemon(true);
+
+						return thread;
+					}
+				});
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.scheduler = executor;
+	}
+
+	/**
+	 * Start watching a run and tell the listener whenever its status changes.
+	 * The listener is told the current status of the run once it is known.
+	 * 
+	 * @param run
+	 *            the run to watch.
+	 * @param listener
+	 *            the listener to tell about status changes.
+	 * @see #unwatch(Run, RunStatusListener)
+	 */
+	public void watch(Run run, RunStatusListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("Listener must not be null.");
+		}
+
+		RunStatus known;
+		Watch watch;
+		do {
+			watch = getWatch(run);
+			known = watch.addListener(listener);
+		} while (known == null);
+
+		// Catch late listeners up with what is already known.
+		if (known != RunStatus.UNDEFINED) {
+			listener.statusChanged(watch.run, null, known);
+		}
+	}
+
+	/**
+	 * Stop telling a listener about the status of a run. The run stops being
+	 * polled if nothing else is waiting on it.
+	 * 
+	 * @param run
+	 *            the run being watched.
+	 * @param listener
+	 *            the listener to remove.
+	 */
+	public void unwatch(Run run, RunStatusListener listener) {
+		Watch watch = watches.get(run.getURI());
+		if (watch != null) {
+			watch.removeListener(listener);
+		}
+	}
+
+	/**
+	 * Wait for a run to finish without blocking. The future completes with
+	 * the final status of the run, which will be {@link RunStatus#FINISHED}
+	 * unless it is stopped or deleted first. Cancelling the future stops the
+	 * run being polled if nothing else is waiting on it.
+	 * 
+	 * @param run
+	 *            the run to wait for.
+	 * @return a future for the final status of the run.
+	 */
+	public Future<RunStatus> awaitCompletion(Run run) {
+		Completion completion = new Completion();
+		completion.await(run);
+
+		return completion.future;
+	}
+
+	/**
+	 * Wait for a run to finish without blocking, for up to the given time.
+	 * The future completes with the final status of the run, or fails with a
+	 * {@link TimeoutException} if the run has not finished in time. Cancelling
+	 * the future stops the run being polled if nothing else is waiting on it.
+	 * 
+	 * @param run
+	 *            the run to wait for.
+	 * @param timeout
+	 *            the longest time to wait.
+	 * @param unit
+	 *            the unit of the timeout.
+	 * @return a future for the final status of the run.
+	 */
+	public Future<RunStatus> awaitCompletion(Run run, long timeout,
+			TimeUnit unit) {
+		Completion completion = new Completion();
+		completion.await(run);
+		completion.timeOut(timeout, unit);
+
+		return completion.future;
+	}
+
+	/**
+	 * Follow the runs on a server that belong to a user through the server's
+	 * Atom event feed instead of polling each of them. The feed is read every
+	 * minimum interval while any run it covers is being watched. Each run is
+	 * still polled once when it is first watched, again whenever a feed entry
+	 * about it cannot be understood or entries might have been missed, and
+	 * every maximum interval in case an event is never published.
+	 * 
+	 * A run is covered by the feed if it belongs to the same {@link Server}
+	 * object and was created or fetched with the same
+	 * {@link UserCredentials} object. Runs that are not covered by any feed
+	 * are polled as normal. If the server has no feed, or it cannot be read
+	 * several times in a row, its runs go back to being polled and it is not
+	 * read again.
+	 * 
+	 * @param server
+	 *            the server whose feed should be read.
+	 * @param credentials
+	 *            the user whose feed should be read.
+	 */
+	public void addFeed(Server server, UserCredentials credentials) {
+		final RunEventFeed feed = new RunEventFeed(server, credentials);
+
+		synchronized (feeds) {
+			if (scheduler.isShutdown()) {
+				throw new IllegalStateException(
+						"This monitor has been shut down.");
+			}
+
+			feeds.put(feed, scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					readFeed(feed);
+				}
+			}, 0, minInterval, TimeUnit.MILLISECONDS));
+		}
+
+		// Runs already being polled switch over once their current poll is
+		// done.
+		for (Watch watch : watches.values()) {
+			watch.cover(feed);
+		}
+	}
+
+	/**
+	 * Get the number of status requests made to poll runs.
+	 * 
+	 * @return the number of status polls.
+	 */
+	public long getStatusPolls() {
+		return statusPolls.get();
+	}
+
+	/**
+	 * Get the number of times an event feed has been read.
+	 * 
+	 * @return the number of feed reads.
+	 */
+	public long getFeedReads() {
+		return feedReads.get();
+	}
+
+	/**
+	 * Get the number of runs currently being polled.
+	 * 
+	 * @return the number of runs being watched.
+	 */
+	public int getWatchCount() {
+		return watches.size();
+	}
+
+	/**
+	 * Stop polling all runs and shut down the polling threads. Any futures
+	 * that have not completed are cancelled.
+	 */
+	public void shutdown() {
+		synchronized (feeds) {
+			scheduler.shutdownNow();
+			feeds.clear();
+		}
+
+		for (Watch watch : watches.values()) {
+			watch.cancel();
+		}
+		watches.clear();
+	}
+
+	/*
+	 * Get the watch for a run, starting one if it is not already watched.
+	 */
+	private Watch getWatch(Run run) {
+		if (scheduler.isShutdown()) {
+			throw new IllegalStateException("This monitor has been shut down.");
+		}
+
+		URI uri = run.getURI();
+		Watch watch = watches.get(uri);
+		if (watch == null) {
+			Watch created = new Watch(run, getFeed(run));
+			watch = watches.putIfAbsent(uri, created);
+			if (watch == null) {
+				watch = created;
+				watch.schedule(0);
+			}
+		}
+
+		return watch;
+	}
+
+	private RunEventFeed getFeed(Run run) {
+		synchronized (feeds) {
+			for (RunEventFeed feed : feeds.keySet()) {
+				if (feed.covers(run)) {
+					return feed;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/*
+	 * Read new entries from a feed and pass on what they say to the runs they
+	 * are about.
+	 */
+	private void readFeed(RunEventFeed feed) {
+		List<Watch> covered = new ArrayList<Watch>();
+		for (Watch watch : watches.values()) {
+			if (watch.isCoveredBy(feed)) {
+				covered.add(watch);
+			}
+		}
+
+		// Do not read the feed if nothing needs it.
+		if (covered.isEmpty()) {
+			return;
+		}
+
+		feedReads.incrementAndGet();
+		List<FeedEntry> entries;
+		try {
+			entries = feed.read();
+		} catch (RuntimeException e) {
+			// Try again next time, unless the feed keeps failing. Anything
+			// missed in the meantime shows up as a gap.
+			if (feed.failed() < MAX_FEED_FAILURES) {
+				return;
+			}
+			entries = null;
+		}
+
+		if (entries == null) {
+			// Give up on the feed and poll its runs instead.
+			synchronized (feeds) {
+				ScheduledFuture<?> reader = feeds.remove(feed);
+				if (reader != null) {
+					reader.cancel(false);
+				}
+			}
+			for (Watch watch : covered) {
+				watch.uncover();
+			}
+
+			return;
+		}
+
+		Set<Watch> toPoll = new HashSet<Watch>();
+		if (feed.hasGap()) {
+			toPoll.addAll(covered);
+		}
+
+		// Only the furthest status reached by each run matters.
+		Map<Watch, RunStatus> reached = new HashMap<Watch, RunStatus>();
+		for (FeedEntry entry : entries) {
+			for (Watch watch : covered) {
+				if (!RunEventFeed.isAbout(entry, watch.run)) {
+					continue;
+				}
+
+				RunStatus status = RunEventFeed.getStatus(entry,
+						watch.run.getIdentifier());
+				if (status == null) {
+					toPoll.add(watch);
+				} else {
+					RunStatus known = reached.get(watch);
+					if (known == null || status.compareTo(known) > 0) {
+						reached.put(watch, status);
+					}
+				}
+			}
+		}
+
+		for (Map.Entry<Watch, RunStatus> update : reached.entrySet()) {
+			update.getKey().update(update.getValue(), true);
+		}
+		for (Watch watch : toPoll) {
+			watch.schedule(0);
+		}
+	}
+
+	/*
+	 * The polling state of a single run, shared by everything waiting on it.
+	 */
+	private final class Watch implements Runnable {
+		final Run run;
+		private final List<RunStatusListener> listeners;
+		private final List<BasicFuture<RunStatus>> futures;
+
+		private RunStatus status;
+		private long interval;
+		private ScheduledFuture<?> next;
+		private boolean done;
+
+		// The feed that tells us about this run, if any.
+		private RunEventFeed feed;
+
+		Watch(Run run, RunEventFeed feed) {
+			this.run = run;
+			this.feed = feed;
+			this.listeners = new ArrayList<RunStatusListener>();
+			this.futures = new ArrayList<BasicFuture<RunStatus>>();
+			this.status = null;
+			this.interval = minInterval;
+			this.done = false;
+		}
+
+		/*
+		 * Returns the status already known, UNDEFINED if there is none yet,
+		 * or null if this watch has stopped and a new one is needed.
+		 */
+		synchronized RunStatus addListener(RunStatusListener listener) {
+			if (done && !isFinal(status)) {
+				return null;
+			}
+
+			if (!done) {
+				listeners.add(listener);
+			}
+
+			return (status == null) ? RunStatus.UNDEFINED : status;
+		}
+
+		synchronized void removeListener(RunStatusListener listener) {
+			listeners.remove(listener);
+			stopIfUnused();
+		}
+
+		/*
+		 * Returns false if this watch has stopped and a new one is needed.
+		 */
+		boolean addFuture(BasicFuture<RunStatus> future) {
+			RunStatus finished;
+			synchronized (this) {
+				if (done && !isFinal(status)) {
+					return false;
+				}
+
+				if (!done) {
+					futures.add(future);
+					return true;
+				}
+				finished = status;
+			}
+
+			// Complete outside the lock as the future calls back into us.
+			future.completed(finished);
+
+			return true;
+		}
+
+		synchronized void removeFuture(BasicFuture<RunStatus> future) {
+			futures.remove(future);
+			stopIfUnused();
+		}
+
+		/*
+		 * Poll within the given delay. A poll that is already due sooner is
+		 * left as it is, so there is only ever one poll waiting.
+		 */
+		synchronized void schedule(long delay) {
+			if (done || scheduler.isShutdown()) {
+				return;
+			}
+
+			if (next != null) {
+				if (next.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+					return;
+				}
+				next.cancel(false);
+			}
+			next = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+
+		synchronized boolean isCoveredBy(RunEventFeed feed) {
+			return !done && this.feed == feed;
+		}
+
+		synchronized void cover(RunEventFeed feed) {
+			if (this.feed == null && feed.covers(run)) {
+				this.feed = feed;
+			}
+		}
+
+		void uncover() {
+			synchronized (this) {
+				feed = null;
+			}
+
+			schedule(0);
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				next = null;
+			}
+
+			RunStatus polled;
+			try {
+				statusPolls.incrementAndGet();
+				polled = source.getStatus(run);
+			} catch (RunNotFoundException e) {
+				polled = RunStatus.DELETED;
+			} catch (RuntimeException e) {
+				// Try again later, backing off as if nothing had changed.
+				backOff();
+				return;
+			}
+
+			update(polled, false);
+		}
+
+		/*
+		 * Act on a new status, from a poll or from the feed. The feed only
+		 * ever moves a run forward, as its entries may arrive after a poll
+		 * has already seen a later status.
+		 */
+		void update(RunStatus polled, boolean fromFeed) {
+			List<RunStatusListener> toTell;
+			RunStatus previous;
+			boolean followed;
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+
+				previous = status;
+				if (fromFeed && previous != null
+						&& polled.compareTo(previous) <= 0) {
+					return;
+				}
+
+				status = polled;
+				followed = (feed != null);
+				toTell = (polled == previous) ? null
+						: new ArrayList<RunStatusListener>(listeners);
+			}
+
+			if (toTell != null) {
+				for (RunStatusListener listener : toTell) {
+					try {
+						listener.statusChanged(run, previous, polled);
+					} catch (RuntimeException e) {
+						// A broken listener must not stop the others.
+					}
+				}
+			}
+
+			if (isFinal(polled)) {
+				finish(polled);
+			} else if (followed || fromFeed) {
+				// The feed should tell us when something changes, but poll
+				// now and again in case it never does.
+				schedule(maxInterval);
+			} else if (polled != previous) {
+				synchronized (this) {
+					interval = minInterval;
+				}
+				schedule(minInterval);
+			} else {
+				backOff();
+			}
+		}
+
+		private void backOff() {
+			long delay;
+			synchronized (this) {
+				delay = interval;
+				interval = Math.min((long) (interval * BACKOFF), maxInterval);
+			}
+
+			schedule(delay);
+		}
+
+		private void finish(RunStatus status) {
+			List<BasicFuture<RunStatus>> toComplete;
+			synchronized (this) {
+				done = true;
+				toComplete = new ArrayList<BasicFuture<RunStatus>>(futures);
+				futures.clear();
+				listeners.clear();
+			}
+
+			watches.remove(run.getURI(), this);
+			for (BasicFuture<RunStatus> future : toComplete) {
+				future.completed(status);
+			}
+		}
+
+		// Must be called with the lock held.
+		private void stopIfUnused() {
+			if (!done && listeners.isEmpty() && futures.isEmpty()) {
+				done = true;
+				if (next != null) {
+					next.cancel(false);
+				}
+				watches.remove(run.getURI(), this);
+			}
+		}
+
+		void cancel() {
+			List<BasicFuture<RunStatus>> toCancel;
+			synchronized (this) {
+				done = true;
+				if (next != null) {
+					next.cancel(false);
+				}
+
+				toCancel = new ArrayList<BasicFuture<RunStatus>>(futures);
+				futures.clear();
+				listeners.clear();
+			}
+
+			for (BasicFuture<RunStatus> future : toCancel) {
+				future.cancel();
+			}
+		}
+
+		private boolean isFinal(RunStatus status) {
+			return status == RunStatus.FINISHED
+					|| status == RunStatus.STOPPED
+					|| status == RunStatus.DELETED;
+		}
+	}
+
+	/*
+	 * A caller waiting for a run to finish. Whichever way its future ends,
+	 * any timeout is cancelled and the run's watch stops waiting for it.
+	 */
+	private final class Completion implements FutureCallback<RunStatus> {
+		final BasicFuture<RunStatus> future;
+		private volatile Watch watch;
+		private volatile ScheduledFuture<?> timeout;
+
+		Completion() {
+			this.future = new BasicFuture<RunStatus>(this);
+		}
+
+		void await(Run run) {
+			Watch found;
+			do {
+				found = getWatch(run);
+			} while (!found.addFuture(future));
+			watch = found;
+
+			// In case it was cancelled before we knew which watch it was on.
+			if (future.isCancelled()) {
+				found.removeFuture(future);
+			}
+		}
+
+		void timeOut(long delay, TimeUnit unit) {
+			if (future.isDone()) {
+				return;
+			}
+
+			timeout = scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					future.failed(new TimeoutException(
+							"Run did not finish in time"));
+				}
+			}, delay, unit);
+
+			// In case it finished before the timeout was set.
+			if (future.isDone()) {
+				timeout.cancel(false);
+			}
+		}
+
+		@Override
+		public void completed(RunStatus status) {
+			stop();
+		}
+
+		@Override
+		public void failed(Exception e) {
+			stop();
+		}
+
+		@Override
+		public void cancelled() {
+			stop();
+		}
+
+		private void stop() {
+			ScheduledFuture<?> t = timeout;
+			if (t != null) {
+				t.cancel(false);
+			}
+
+			Watch w = watch;
+			if (w != null) {
+				w.removeFuture(future);
+			}
+		}
+	}
+}
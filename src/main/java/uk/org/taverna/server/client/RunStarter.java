@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Start a Run. The checks that have to be made first are made at the same
+ * time as each other, and then the input files are uploaded and the input
+ * ports set with a number of requests in flight at once, rather than one
+ * after another.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class RunStarter {
+
+	private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Taverna Server run start");
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	};
+
+	private RunStarter() {
+	}
+
+	/*
+	 * Start the run, recording how long each phase takes in milliseconds as
+	 * it completes.
+	 */
+	static void start(final Run run, int parallelism,
+			Map<StartPhase, Long> latencies) throws IOException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(
+					"Parallelism must be at least 1.");
+		}
+
+		// Every request below needs the run's links, so fetch them here once
+		// rather than have each thread race to.
+		run.getRunResources();
+
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+				THREAD_FACTORY);
+
+		try {
+			long phase = System.nanoTime();
+
+			// The status, whether baclava is in use and the input ports do not
+			// depend on each other so ask for them all at once. Anything that
+			// is already known is not asked for again, and the input ports are
+			// not needed at all if baclava is in use.
+			boolean baclavaKnown = run.isBaclavaInputKnown();
+			Future<Boolean> baclava = null;
+			Future<Map<String, InputPort>> ports = null;
+
+			Future<RunStatus> status = executor
+					.submit(new Callable<RunStatus>() {
+						@Override
+						public RunStatus call() {
+							return run.getStatus();
+						}
+					});
+
+			if (!baclavaKnown) {
+				baclava = executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return run.isBaclavaInput();
+					}
+				});
+
+				ports = executor
+						.submit(new Callable<Map<String, InputPort>>() {
+							@Override
+							public Map<String, InputPort> call() {
+								// Baclava may have been found in the meantime.
+								if (run.isBaclavaInputKnown()) {
+									return null;
+								}
+
+								return run.getInputPorts();
+							}
+						});
+			}
+
+			RunStatus rs = waitFor(status);
+			if (rs != RunStatus.INITIALIZED) {
+				throw new RunStateException(rs, RunStatus.INITIALIZED);
+			}
+
+			boolean baclavaIn = baclavaKnown || waitFor(baclava);
+			Map<String, InputPort> inputs = null;
+			if (!baclavaIn) {
+				inputs = waitFor(ports);
+			} else if (ports != null) {
+				ports.cancel(false);
+			}
+			phase = record(latencies, StartPhase.CHECK, phase);
+
+			if (!baclavaIn) {
+				setInputs(run, inputs, executor);
+			}
+			phase = record(latencies, StartPhase.INPUTS, phase);
+
+			run.setRunning();
+			record(latencies, StartPhase.START, phase);
+		} finally {
+			// Let requests that are already in flight finish rather than
+			// leave the state of their ports unknown.
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * Set all the input ports that have not already been set to their current
+	 * values. Nothing is sent if any ports are missing a value.
+	 */
+	private static void setInputs(final Run run, Map<String, InputPort> ports,
+			ExecutorService executor) throws IOException {
+		List<String> missingPorts = new ArrayList<String>();
+		List<InputPort> toSend = new ArrayList<InputPort>();
+
+		// Baclava is known not to be in use here so there is no need to ask
+		// each port whether it has been set by baclava.
+		for (InputPort port : ports.values()) {
+			if (!port.hasValue()) {
+				missingPorts.add(port.getName());
+			} else if (!port.isSent()) {
+				toSend.add(port);
+			}
+		}
+
+		if (!missingPorts.isEmpty()) {
+			throw new RunInputsNotSetException(run.getIdentifier(),
+					missingPorts);
+		}
+
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for (final InputPort port : toSend) {
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					// If we're using a local file upload it first then set the
+					// port to use a remote file.
+					if (port.isFile() && !port.isRemoteFile()) {
+						port.uploaded(run.uploadFile(port.getFile()));
+					}
+
+					run.setInputPort(port);
+					port.sent();
+
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> result : results) {
+				waitFor(result);
+			}
+		} finally {
+			// If anything went wrong don't send any more.
+			for (Future<Void> result : results) {
+				result.cancel(false);
+			}
+		}
+	}
+
+	private static long record(Map<StartPhase, Long> latencies,
+			StartPhase phase, long from) {
+		long now = System.nanoTime();
+		latencies.put(phase, (now - from) / 1000000);
+
+		return now;
+	}
+
+	/*
+	 * Wait for a task to finish and rethrow anything that went wrong.
+	 */
+	private static <T> T waitFor(Future<T> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while starting run.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new IOException(cause);
+		}
+	}
+}
@@ -33,7 +33,6 @@
 package uk.org.taverna.server.client;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -42,18 +41,27 @@ import java.net.URISyntaxException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.math.LongRange;
+import org.apache.http.concurrent.FutureCallback;
 
+import uk.org.taverna.server.client.connection.AsyncConnection;
 import uk.org.taverna.server.client.connection.Connection;
 import uk.org.taverna.server.client.connection.ConnectionFactory;
 import uk.org.taverna.server.client.connection.MimeType;
 import uk.org.taverna.server.client.connection.UserCredentials;
+import uk.org.taverna.server.client.connection.params.ConnectionPNames;
 import uk.org.taverna.server.client.connection.params.ConnectionParams;
 import uk.org.taverna.server.client.util.URIUtils;
+import uk.org.taverna.server.client.xml.FeedEntry;
+import uk.org.taverna.server.client.xml.JAXBEngine;
 import uk.org.taverna.server.client.xml.ResourceLabel;
 import uk.org.taverna.server.client.xml.ServerResources;
 import uk.org.taverna.server.client.xml.XMLReader;
@@ -82,9 +90,48 @@ public final class Server {
 	 */
 	private final static String REST_ENDPOINT = "rest/";
 
+	/*
+	 * By default values are downloaded in one piece. When downloads are split
+	 * they are split into ranges of this size.
+	 */
+	private final static long DEFAULT_DOWNLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+	private final static int DEFAULT_DOWNLOAD_PARALLELISM = 1;
+
+	/*
+	 * How many times in a row to try to resume a broken download.
+	 */
+	private final static int DEFAULT_DOWNLOAD_MAX_RESUMES = 3;
+
+	/*
+	 * How many runs to create at once when creating a batch of them.
+	 */
+	private final static int DEFAULT_CREATE_PARALLELISM = 4;
+
+	/*
+	 * How many input uploads and settings to send at once when starting a run.
+	 */
+	private final static int DEFAULT_START_PARALLELISM = 4;
+
+	/*
+	 * Workflows are stored by their content so one store serves all servers.
+	 */
+	private final static WorkflowStore workflows = new WorkflowStore();
+
 	private final Connection connection;
+	private final ConnectionParams params;
+	private AsyncConnection asyncConnection;
+
+	// Guarded by this.
+	private boolean closed;
+
+	private final long downloadChunkSize;
+	private final int downloadParallelism;
+	private final int downloadMaxResumes;
+	private final int createParallelism;
+	private final int startParallelism;
 
 	private final URI uri;
+	// Guarded by itself, as are the per-user maps within it.
 	private final Map<String, Map<String, Run>> runs;
 
 	private final XMLReader reader;
@@ -100,6 +147,45 @@ public final class Server {
 		this.uri = URIUtils.stripUserInfo(uri);
 
 		connection = ConnectionFactory.getConnection(this.uri, params);
+		this.params = params;
+		asyncConnection = null;
+		closed = false;
+
+		// build the XML binding engine now if asked, rather than on first use
+		if (params != null
+				&& params.isParameterTrue(ConnectionPNames.XML_WARM_UP)) {
+			try {
+				JAXBEngine.warmUp();
+			} catch (JAXBException e) {
+				throw new IllegalStateException(
+						"Could not build the XML binding engine.", e);
+			}
+		}
+
+		// settings for splitting and resuming large downloads
+		if (params != null) {
+			downloadChunkSize = params.getLongParameter(
+					ConnectionPNames.DOWNLOAD_CHUNK_SIZE,
+					DEFAULT_DOWNLOAD_CHUNK_SIZE);
+			downloadParallelism = params.getIntParameter(
+					ConnectionPNames.DOWNLOAD_PARALLELISM,
+					DEFAULT_DOWNLOAD_PARALLELISM);
+			downloadMaxResumes = params.getIntParameter(
+					ConnectionPNames.DOWNLOAD_MAX_RESUMES,
+					DEFAULT_DOWNLOAD_MAX_RESUMES);
+			createParallelism = params.getIntParameter(
+					ConnectionPNames.CREATE_PARALLELISM,
+					DEFAULT_CREATE_PARALLELISM);
+			startParallelism = params.getIntParameter(
+					ConnectionPNames.START_PARALLELISM,
+					DEFAULT_START_PARALLELISM);
+		} else {
+			downloadChunkSize = DEFAULT_DOWNLOAD_CHUNK_SIZE;
+			downloadParallelism = DEFAULT_DOWNLOAD_PARALLELISM;
+			downloadMaxResumes = DEFAULT_DOWNLOAD_MAX_RESUMES;
+			createParallelism = DEFAULT_CREATE_PARALLELISM;
+			startParallelism = DEFAULT_START_PARALLELISM;
+		}
 
 		reader = new XMLReader(connection);
 		resources = null;
@@ -116,6 +202,28 @@ public final class Server {
 		this(uri, null);
 	}
 
+	/**
+	 * Release the network connections held by this Server instance.
+	 * Connections are shared between Server instances on the same host so they
+	 * are only actually closed once every Server using them has been closed.
+	 * This Server instance must not be used after it has been closed. Closing
+	 * it again has no effect.
+	 */
+	public synchronized void close() {
+		// Releasing twice would release another Server's share.
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		ConnectionFactory.release(connection);
+
+		if (asyncConnection != null) {
+			ConnectionFactory.release(asyncConnection);
+			asyncConnection = null;
+		}
+	}
+
 	/**
 	 * Get the version of the remote Taverna Server instance.
 	 * 
@@ -152,6 +260,7 @@ public final class Server {
 	 * @return all the Run instances hosted on this server.
 	 */
 	public Collection<Run> getRuns(UserCredentials credentials) {
+		// The map is already a copy so its values are not shared.
 		return getRunsFromServer(credentials).values();
 	}
 
@@ -169,14 +278,28 @@ public final class Server {
 		}
 
 		// ... so we can clear it here now we've deleted them all.
-		runs.remove(credentials.getUsername());
+		synchronized (runs) {
+			runs.remove(credentials.getUsername());
+		}
 	}
 
+	/*
+	 * Returns a copy of the user's runs as runs may be created, and so cached,
+	 * by other threads while the caller is using it.
+	 */
 	private Map<String, Run> getRunsFromServer(UserCredentials credentials) {
 		// Get this user's run list.
 		URI uri = getLink(ResourceLabel.RUNS);
 		Map<String, URI> runList = reader.readRunList(uri, credentials);
 
+		synchronized (runs) {
+			return new HashMap<String, Run>(updateUserRunCache(runList,
+					credentials));
+		}
+	}
+
+	private Map<String, Run> updateUserRunCache(Map<String, URI> runList,
+			UserCredentials credentials) {
 		// Get this user's run cache.
 		Map<String, Run> userRuns = getUserRunCache(credentials.getUsername());
 
@@ -205,6 +328,9 @@ public final class Server {
 		return userRuns;
 	}
 
+	/*
+	 * Must be called while holding the lock on runs.
+	 */
 	private Map<String, Run> getUserRunCache(String user) {
 		Map<String, Run> userRuns = runs.get(user);
 		if (userRuns == null) {
@@ -288,6 +414,22 @@ public final class Server {
 		return location;
 	}
 
+	/**
+	 * Initialize a Run on this server instance, streaming the workflow from
+	 * disk.
+	 * 
+	 * @param workflow
+	 *            the workflow file to be run.
+	 * @return the id of the new run as returned by the server.
+	 * @throws FileNotFoundException
+	 *             if the workflow file cannot be read.
+	 */
+	URI initializeRun(File workflow, UserCredentials credentials)
+			throws FileNotFoundException {
+		return connection.create(getLink(ResourceLabel.RUNS), workflow,
+				MimeType.T2FLOW, credentials);
+	}
+
 	/**
 	 * Create a new Run on this server with the supplied workflow.
 	 * 
@@ -297,13 +439,78 @@ public final class Server {
 	 */
 	public Run createRun(byte[] workflow, UserCredentials credentials) {
 		Run run = Run.create(this, workflow, credentials);
-
-		getUserRunCache(credentials.getUsername())
-		.put(run.getIdentifier(), run);
+		cacheRun(run, credentials);
 
 		return run;
 	}
 
+	/**
+	 * Create a number of new Runs on this server with the same workflow. The
+	 * creation requests are made concurrently, up to the number set with the
+	 * {@link ConnectionPNames#CREATE_PARALLELISM} parameter (4 by default).
+	 * The connection pool should allow at least that many connections to the
+	 * server.
+	 * 
+	 * If the server reaches its limit of runs part way through, the runs
+	 * created so far are still returned and no more are attempted.
+	 * 
+	 * @param workflow
+	 *            the workflow to be run.
+	 * @param count
+	 *            the number of runs to create.
+	 * @param credentials
+	 *            the credentials to create the runs with.
+	 * @return the new Run instances, in the order they were created. There
+	 *         may be fewer than were asked for if some could not be created.
+	 * @throws CancellationException
+	 *             if the calling thread is interrupted before all the runs
+	 *             have been created. Its interrupt status is set again, and
+	 *             any runs that were created can be found with
+	 *             {@link #getRuns(UserCredentials)}.
+	 * @since 0.9.0
+	 * @see #createRunsAsync(byte[], int, UserCredentials, FutureCallback)
+	 */
+	public List<Run> createRuns(byte[] workflow, int count,
+			UserCredentials credentials) {
+		return RunBatch.create(this, workflow, count, credentials,
+				createParallelism, null);
+	}
+
+	/**
+	 * Create a number of new Runs on this server with the same workflow
+	 * without blocking, as {@link #createRuns(byte[], int, UserCredentials)}.
+	 * Each run is handed to the callback as soon as it has been created, so
+	 * that work on it can start while the rest are still being created.
+	 * 
+	 * The callback is told about each run in turn: through
+	 * {@link FutureCallback#completed(Object)} if it was created,
+	 * {@link FutureCallback#failed(Exception)} if it could not be, for
+	 * example with a {@link ServerAtCapacityException}, or
+	 * {@link FutureCallback#cancelled()} if it was not attempted because the
+	 * server was already full. Calls are made on a single thread belonging to
+	 * the batch, so they should return quickly.
+	 * 
+	 * Cancelling the returned future with <code>mayInterruptIfRunning</code>
+	 * set stops the batch: no more runs are attempted and the callback is told
+	 * that each of the runs it has not heard about yet was cancelled.
+	 * 
+	 * @param workflow
+	 *            the workflow to be run.
+	 * @param count
+	 *            the number of runs to create.
+	 * @param credentials
+	 *            the credentials to create the runs with.
+	 * @param callback
+	 *            told about each run as it is created, may be null.
+	 * @return a future for all the runs that were created.
+	 * @since 0.9.0
+	 */
+	public Future<List<Run>> createRunsAsync(byte[] workflow, int count,
+			UserCredentials credentials, FutureCallback<Run> callback) {
+		return RunBatch.createAsync(this, workflow, count, credentials,
+				createParallelism, callback);
+	}
+
 	/**
 	 * Create a new Run on this server with the supplied workflow file.
 	 * 
@@ -315,8 +522,28 @@ public final class Server {
 	 */
 	public Run createRun(File workflow, UserCredentials credentials)
 			throws IOException {
+		Run run = Run.create(this, workflow, credentials);
+		cacheRun(run, credentials);
+
+		return run;
+	}
+
+	/*
+	 * The store that runs keep their workflows in.
+	 */
+	WorkflowStore getWorkflowStore() {
+		return workflows;
+	}
 
-		return createRun(FileUtils.readFileToByteArray(workflow), credentials);
+	/*
+	 * Add a new run to its user's run cache. Runs created in a batch are added
+	 * from several threads at once.
+	 */
+	void cacheRun(Run run, UserCredentials credentials) {
+		synchronized (runs) {
+			getUserRunCache(credentials.getUsername()).put(
+					run.getIdentifier(), run);
+		}
 	}
 
 	URI createResource(URI uri, byte[] content, UserCredentials credentials) {
@@ -350,11 +577,46 @@ public final class Server {
 		return new String(connection.read(uri, MimeType.TEXT, credentials));
 	}
 
+	InputStream readResourceAsBufferedStream(URI uri, MimeType type,
+			LongRange range, UserCredentials credentials) {
+		return connection.readBuffered(uri, type, range, credentials);
+	}
+
 	InputStream readResourceAsStream(URI uri, MimeType type, LongRange range,
 			UserCredentials credentials) {
 		return connection.readStream(uri, type, range, credentials);
 	}
 
+	Future<byte[]> readResourceAsBytesAsync(URI uri, MimeType type,
+			LongRange range, UserCredentials credentials,
+			FutureCallback<byte[]> callback) {
+		return getAsyncConnection().read(uri, type, range, credentials,
+				callback);
+	}
+
+	Future<InputStream> readResourceAsStreamAsync(URI uri, MimeType type,
+			LongRange range, UserCredentials credentials,
+			FutureCallback<InputStream> callback) {
+		return getAsyncConnection().readStream(uri, type, range, credentials,
+				callback);
+	}
+
+	long getDownloadChunkSize() {
+		return downloadChunkSize;
+	}
+
+	int getDownloadParallelism() {
+		return downloadParallelism;
+	}
+
+	int getDownloadMaxResumes() {
+		return downloadMaxResumes;
+	}
+
+	int getStartParallelism() {
+		return startParallelism;
+	}
+
 	URI uploadData(URI uri, InputStream stream, String remoteName,
 			UserCredentials credentials) {
 		uri = URIUtils.appendToPath(uri, remoteName);
@@ -373,14 +635,7 @@ public final class Server {
 		}
 
 		uri = URIUtils.appendToPath(uri, rename);
-
-		InputStream is = new FileInputStream(file);
-		try {
-			connection.update(uri, is, file.length(), MimeType.BYTES,
-					credentials);
-		} finally {
-			IOUtils.closeQuietly(is);
-		}
+		connection.update(uri, file, MimeType.BYTES, credentials);
 
 		return rename;
 	}
@@ -395,10 +650,38 @@ public final class Server {
 				credentials);
 	}
 
+	/*
+	 * The asynchronous connection is only created if it is actually used as it
+	 * starts its own I/O reactor threads.
+	 */
+	private synchronized AsyncConnection getAsyncConnection() {
+		if (closed) {
+			throw new IllegalStateException("This Server has been closed.");
+		}
+
+		if (asyncConnection == null) {
+			asyncConnection = ConnectionFactory.getAsyncConnection(uri, params);
+		}
+
+		return asyncConnection;
+	}
+
 	XMLReader getXMLReader() {
 		return reader;
 	}
 
+	/*
+	 * Returns null if this server has no feed or it could not be read.
+	 */
+	List<FeedEntry> readFeed(UserCredentials credentials) {
+		URI feed = getLink(ResourceLabel.FEED);
+		if (feed == null) {
+			return null;
+		}
+
+		return reader.readFeed(feed, credentials);
+	}
+
 	private URI getLink(ResourceLabel key) {
 		return getServerResources().get(key);
 	}
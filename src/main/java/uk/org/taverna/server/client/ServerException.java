@@ -49,4 +49,16 @@ public abstract class ServerException extends RuntimeException {
 	public ServerException(String message) {
 		super(message);
 	}
+
+	/**
+	 * Constructs a new server exception with the specified detail message and
+	 * cause.
+	 * 
+	 * @param message
+	 * @param cause
+	 * @since 0.9.0
+	 */
+	public ServerException(String message, Throwable cause) {
+		super(message, cause);
+	}
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A content-addressed store of workflow documents, shared by all runs. Each
+ * distinct workflow is held once, keyed by the digest of its bytes, so runs
+ * only need to keep the digest rather than their own copy of the workflow.
+ * 
+ * Workflows are only softly held so the garbage collector may reclaim them
+ * when memory is short. A run whose workflow has been reclaimed fetches it
+ * from the server again when it is next asked for it.
+ * 
+ * All methods in this class are thread-safe.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class WorkflowStore {
+
+	private final static String DIGEST_ALGORITHM = "SHA-256";
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Map<String, Entry> entries;
+	private final ReferenceQueue<byte[]> queue;
+
+	WorkflowStore() {
+		entries = new HashMap<String, Entry>();
+		queue = new ReferenceQueue<byte[]>();
+	}
+
+	/**
+	 * Add a workflow to the store. If the store already holds a workflow with
+	 * this digest then that copy is kept and returned so that callers can
+	 * drop their own.
+	 * 
+	 * @param digest
+	 *            the digest of the workflow, as returned by
+	 *            {@link #digest(byte[])}.
+	 * @param workflow
+	 *            the workflow.
+	 * @return the copy of the workflow held by the store.
+	 */
+	synchronized byte[] put(String digest, byte[] workflow) {
+		purge();
+
+		Entry entry = entries.get(digest);
+		if (entry != null) {
+			byte[] held = entry.get();
+			if (held != null) {
+				return held;
+			}
+		}
+
+		entries.put(digest, new Entry(digest, workflow, queue));
+
+		return workflow;
+	}
+
+	/**
+	 * Get a workflow from the store.
+	 * 
+	 * @param digest
+	 *            the digest of the workflow.
+	 * @return the workflow, or <code>null</code> if it is not held, or has
+	 *         been reclaimed.
+	 */
+	synchronized byte[] get(String digest) {
+		purge();
+
+		Entry entry = entries.get(digest);
+
+		return entry == null ? null : entry.get();
+	}
+
+	/**
+	 * Get the number of distinct workflows currently held by the store.
+	 * 
+	 * @return the number of workflows held.
+	 */
+	synchronized int size() {
+		purge();
+
+		return entries.size();
+	}
+
+	/**
+	 * Calculate the digest that a workflow is stored under.
+	 * 
+	 * @param workflow
+	 *            the workflow.
+	 * @return the digest of the workflow as a hex string.
+	 */
+	static String digest(byte[] workflow) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to provide SHA-256.
+			throw new RuntimeException(e);
+		}
+
+		byte[] hash = md.digest(workflow);
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+		}
+
+		return new String(hex);
+	}
+
+	/*
+	 * Drop the entries for any workflows that have been reclaimed, unless they
+	 * have since been replaced.
+	 */
+	private void purge() {
+		Entry entry;
+		while ((entry = (Entry) queue.poll()) != null) {
+			if (entries.get(entry.digest) == entry) {
+				entries.remove(entry.digest);
+			}
+		}
+	}
+
+	private static final class Entry extends SoftReference<byte[]> {
+		private final String digest;
+
+		Entry(String digest, byte[] workflow, ReferenceQueue<byte[]> queue) {
+			super(workflow, queue);
+			this.digest = digest;
+		}
+	}
+}
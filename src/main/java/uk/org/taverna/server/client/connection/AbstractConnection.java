@@ -33,9 +33,16 @@
 package uk.org.taverna.server.client.connection;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.math.LongRange;
+
 /**
  * 
  * @author Robert Haines
@@ -55,6 +62,18 @@ public abstract class AbstractConnection implements Connection {
 		return create(uri, content, -1, type, credentials);
 	}
 
+	@Override
+	public URI create(URI uri, File content, MimeType type,
+			UserCredentials credentials) throws FileNotFoundException {
+		InputStream is = new FileInputStream(content);
+
+		try {
+			return create(uri, is, content.length(), type, credentials);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+
 	@Override
 	public InputStream readStream(URI uri, MimeType type,
 			UserCredentials credentials) {
@@ -66,6 +85,28 @@ public abstract class AbstractConnection implements Connection {
 		return read(uri, type, null, credentials);
 	}
 
+	@Override
+	public InputStream readBuffered(URI uri, MimeType type, LongRange range,
+			UserCredentials credentials) {
+		byte[] data = read(uri, type, range, credentials);
+
+		return data == null ? null : new ByteArrayInputStream(data);
+	}
+
+	@Override
+	public <T> T read(URI uri, MimeType type, UserCredentials credentials,
+			ResponseParser<T> parser) {
+		InputStream is = readStream(uri, type, credentials);
+
+		try {
+			return parser.parse(is);
+		} catch (IOException e) {
+			throw new UnreadableResponseException(uri, e);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+
 	@Override
 	public URI update(URI uri, byte[] content, MimeType type,
 			UserCredentials credentials) {
@@ -78,4 +119,16 @@ public abstract class AbstractConnection implements Connection {
 			UserCredentials credentials) {
 		return update(uri, content, -1, type, credentials);
 	}
+
+	@Override
+	public URI update(URI uri, File content, MimeType type,
+			UserCredentials credentials) throws FileNotFoundException {
+		InputStream is = new FileInputStream(content);
+
+		try {
+			return update(uri, is, content.length(), type, credentials);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.math.LongRange;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * The non-blocking counterpart of {@link Connection}. Each method returns
+ * immediately with a {@link Future} for the result of the request and,
+ * optionally, calls back when the request completes. No thread is held while
+ * a request is in flight.
+ * 
+ * Errors that would be thrown by the blocking methods are reported as the
+ * cause of an {@link java.util.concurrent.ExecutionException} from
+ * {@link Future#get()}, or to {@link FutureCallback#failed(Exception)}.
+ * 
+ * Callbacks may be <code>null</code>.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public interface AsyncConnection {
+	/**
+	 * Read a resource as a stream. Unlike {@link Connection#readStream} the
+	 * whole response body may be held in memory before the {@link Future}
+	 * completes, so large values should be read a range at a time.
+	 */
+	public Future<InputStream> readStream(URI uri, MimeType type,
+			LongRange range, UserCredentials credentials,
+			FutureCallback<InputStream> callback);
+
+	/**
+	 * Read a resource as a stream. The whole response body may be held in
+	 * memory before the {@link Future} completes.
+	 */
+	public Future<InputStream> readStream(URI uri, MimeType type,
+			UserCredentials credentials, FutureCallback<InputStream> callback);
+
+	public Future<byte[]> read(URI uri, MimeType type, LongRange range,
+			UserCredentials credentials, FutureCallback<byte[]> callback);
+
+	public Future<byte[]> read(URI uri, MimeType type,
+			UserCredentials credentials, FutureCallback<byte[]> callback);
+
+	public Future<URI> update(URI uri, byte[] content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback);
+
+	/**
+	 * Upload the contents of a file. The file is transferred straight from
+	 * disk to the network where the platform allows it.
+	 */
+	public Future<URI> update(URI uri, File content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback);
+
+	public Future<Boolean> delete(URI uri, UserCredentials credentials,
+			FutureCallback<Boolean> callback);
+
+	public Future<URI> create(URI uri, byte[] content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback);
+
+	/**
+	 * Create a resource from the contents of a file. The file is transferred
+	 * straight from disk to the network where the platform allows it.
+	 */
+	public Future<URI> create(URI uri, File content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback);
+
+	/**
+	 * Shut down this connection and release all of its resources. Connections
+	 * obtained from {@link ConnectionFactory} are shared so they should be
+	 * handed back with {@link ConnectionFactory#release(AsyncConnection)}
+	 * instead.
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang.math.LongRange;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientAsyncConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.conn.scheme.AsyncScheme;
+import org.apache.http.nio.conn.scheme.AsyncSchemeRegistry;
+import org.apache.http.nio.conn.ssl.SSLLayeringStrategy;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.entity.NFileEntity;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+
+import uk.org.taverna.server.client.connection.params.ConnectionPNames;
+import uk.org.taverna.server.client.connection.params.ConnectionParams;
+
+/**
+ * An {@link AsyncConnection} using non-blocking NIO HTTP (and HTTPS).
+ * 
+ * Response bodies are buffered in memory by the I/O reactor before the
+ * returned {@link Future} completes, so streams returned by
+ * {@link #readStream(URI, MimeType, LongRange, UserCredentials, FutureCallback)}
+ * do not hold a connection open, but nor do they bound memory use. Large
+ * values should be read a range at a time, or with a blocking
+ * {@link Connection}.
+ * 
+ * Authentication challenges are answered in the same way as they are by
+ * {@link HttpConnection}, so credentials, such as Digest, that need a
+ * challenge before they can authenticate a request work here too.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public class AsyncHttpConnection extends AbstractAsyncConnection {
+
+	// The connection pool defaults. See HttpConnection.
+	private final static int DEFAULT_MAX_TOTAL = 20;
+	private final static int DEFAULT_MAX_PER_ROUTE = 20;
+
+	protected final URI uri;
+
+	protected final ConnectionParams params;
+
+	protected final HttpAsyncClient httpClient;
+
+	AsyncHttpConnection(URI uri, ConnectionParams params) {
+		this.uri = uri;
+		this.params = params;
+
+		AsyncSchemeRegistry registry = new AsyncSchemeRegistry();
+		registry.register(new AsyncScheme("http", 80, null));
+
+		if (uri.getScheme().equalsIgnoreCase("https")) {
+			// get the remote port and default to 443 for https
+			int remotePort = uri.getPort();
+			remotePort = (remotePort != -1) ? remotePort : 443;
+
+			SSLContext sslcontext = HttpsConnection.createSSLContext(params);
+			if (sslcontext != null) {
+				registry.register(new AsyncScheme("https", remotePort,
+						new SSLLayeringStrategy(sslcontext, HttpsConnection
+								.getHostnameVerifier(params))));
+			}
+		}
+
+		try {
+			PoolingClientAsyncConnectionManager cm = new PoolingClientAsyncConnectionManager(
+					new DefaultConnectingIOReactor(), registry);
+			cm.setMaxTotal(params.getIntParameter(
+					ConnectionPNames.POOL_MAX_TOTAL, DEFAULT_MAX_TOTAL));
+			cm.setDefaultMaxPerRoute(params.getIntParameter(
+					ConnectionPNames.POOL_MAX_PER_ROUTE, DEFAULT_MAX_PER_ROUTE));
+
+			httpClient = new DefaultHttpAsyncClient(cm);
+		} catch (IOReactorException e) {
+			throw new IllegalStateException(
+					"Could not start the asynchronous I/O reactor", e);
+		}
+
+		httpClient.start();
+	}
+
+	@Override
+	public Future<InputStream> readStream(final URI uri, MimeType type,
+			LongRange range, UserCredentials credentials,
+			FutureCallback<InputStream> callback) {
+		final int success = (range == null) ? HttpURLConnection.HTTP_OK
+				: HttpURLConnection.HTTP_PARTIAL;
+
+		return execute(get(uri, type, range), credentials,
+				new ResponseCallback<InputStream>(callback) {
+					@Override
+					InputStream handle(HttpResponse response)
+							throws IOException {
+						HttpEntity entity = response.getEntity();
+						if (!HttpConnection.isSuccess(response, success)) {
+							HttpConnection.error(response, entity, uri);
+						}
+
+						return entity.getContent();
+					}
+				});
+	}
+
+	@Override
+	public Future<byte[]> read(final URI uri, MimeType type, LongRange range,
+			UserCredentials credentials, FutureCallback<byte[]> callback) {
+		final int success = (range == null) ? HttpURLConnection.HTTP_OK
+				: HttpURLConnection.HTTP_PARTIAL;
+
+		return execute(get(uri, type, range), credentials,
+				new ResponseCallback<byte[]>(callback) {
+					@Override
+					byte[] handle(HttpResponse response) throws IOException {
+						HttpEntity entity = response.getEntity();
+						if (!HttpConnection.isSuccess(response, success)) {
+							HttpConnection.error(response, entity, uri);
+						}
+
+						return EntityUtils.toByteArray(entity);
+					}
+				});
+	}
+
+	@Override
+	public Future<URI> update(URI uri, byte[] content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback) {
+		NByteArrayEntity entity = new NByteArrayEntity(content);
+		entity.setContentType(type.contentType);
+
+		return update(uri, entity, credentials, callback);
+	}
+
+	@Override
+	public Future<URI> update(URI uri, File content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback) {
+		return update(uri,
+				new NFileEntity(content, ContentType.create(type.contentType)),
+				credentials, callback);
+	}
+
+	private Future<URI> update(final URI uri, HttpEntity entity,
+			UserCredentials credentials, FutureCallback<URI> callback) {
+		HttpPut request = new HttpPut(uri);
+		request.setEntity(entity);
+
+		return execute(request, credentials, new ResponseCallback<URI>(
+				callback) {
+			@Override
+			URI handle(HttpResponse response) {
+				// See HttpConnection#update for the meaning of each response.
+				if (HttpConnection.isSuccess(response,
+						HttpURLConnection.HTTP_OK)) {
+					return uri;
+				} else if (HttpConnection.isSuccess(response,
+						HttpURLConnection.HTTP_CREATED)) {
+					return URI.create(response.getHeaders("location")[0]
+							.getValue());
+				} else if (HttpConnection.isSuccess(response,
+						HttpURLConnection.HTTP_NO_CONTENT)) {
+					return uri;
+				} else {
+					HttpConnection.error(response, uri);
+				}
+
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public Future<Boolean> delete(final URI uri, UserCredentials credentials,
+			FutureCallback<Boolean> callback) {
+		return execute(new HttpDelete(uri), credentials,
+				new ResponseCallback<Boolean>(callback) {
+					@Override
+					Boolean handle(HttpResponse response) {
+						if (!HttpConnection.isSuccess(response,
+								HttpURLConnection.HTTP_NO_CONTENT)) {
+							HttpConnection.error(response, uri);
+						}
+
+						return true;
+					}
+				});
+	}
+
+	@Override
+	public Future<URI> create(URI uri, byte[] content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback) {
+		NByteArrayEntity entity = new NByteArrayEntity(content);
+		entity.setContentType(type.contentType);
+
+		return create(uri, entity, credentials, callback);
+	}
+
+	@Override
+	public Future<URI> create(URI uri, File content, MimeType type,
+			UserCredentials credentials, FutureCallback<URI> callback) {
+		return create(uri,
+				new NFileEntity(content, ContentType.create(type.contentType)),
+				credentials, callback);
+	}
+
+	private Future<URI> create(final URI uri, HttpEntity entity,
+			UserCredentials credentials, FutureCallback<URI> callback) {
+		HttpPost request = new HttpPost(uri);
+		request.setEntity(entity);
+
+		return execute(request, credentials, new ResponseCallback<URI>(
+				callback) {
+			@Override
+			URI handle(HttpResponse response) {
+				if (!HttpConnection.isSuccess(response,
+						HttpURLConnection.HTTP_CREATED)) {
+					HttpConnection.error(response, uri);
+				}
+
+				return URI.create(response.getHeaders("location")[0]
+						.getValue());
+			}
+		});
+	}
+
+	@Override
+	public void shutdown() {
+		try {
+			httpClient.shutdown();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private HttpGet get(URI uri, MimeType type, LongRange range) {
+		HttpGet request = new HttpGet(uri);
+
+		if (type != null) {
+			request.addHeader("Accept", type.contentType);
+		}
+
+		if (range != null) {
+			request.addHeader("Range", HttpConnection.getRangeSpec(range));
+		}
+
+		return request;
+	}
+
+	private <T> Future<T> execute(HttpUriRequest request,
+			UserCredentials credentials, ResponseCallback<T> callback) {
+		Exchange exchange = new Exchange(request, credentials, callback);
+		callback.exchange = exchange;
+		exchange.send();
+
+		return callback.future;
+	}
+
+	/*
+	 * A request and its authentication. If the server answers with an
+	 * authentication challenge the request is sent again, once, with new
+	 * authorization, in the same way as HttpConnection does. Aborting it drops
+	 * the connection it is using, so that a cancelled request does not hold
+	 * on to a pooled connection until the server answers.
+	 */
+	private final class Exchange implements FutureCallback<HttpResponse> {
+
+		private final HttpUriRequest request;
+		private final UserCredentials credentials;
+		private final FutureCallback<HttpResponse> callback;
+
+		// Each request gets its own context as many may be in flight at once.
+		private final BasicHttpContext context;
+		private boolean challenged;
+
+		// The client's future for the request currently in flight.
+		private volatile Future<HttpResponse> sent;
+		private volatile boolean aborted;
+
+		Exchange(HttpUriRequest request, UserCredentials credentials,
+				FutureCallback<HttpResponse> callback) {
+			this.request = request;
+			this.credentials = credentials;
+			this.callback = callback;
+			context = new BasicHttpContext();
+			challenged = false;
+			aborted = false;
+		}
+
+		void send() {
+			if (aborted) {
+				return;
+			}
+
+			if (credentials != null) {
+				request.removeHeaders("Authorization");
+				credentials.authenticate(request, context);
+			}
+
+			sent = httpClient.execute(request, context, this);
+
+			// In case it was aborted while it was being sent.
+			if (aborted) {
+				sent.cancel(true);
+			}
+		}
+
+		void abort() {
+			aborted = true;
+
+			Future<HttpResponse> current = sent;
+			if (current != null) {
+				current.cancel(true);
+			}
+
+			if (request instanceof AbortableHttpRequest) {
+				((AbortableHttpRequest) request).abort();
+			}
+		}
+
+		@Override
+		public void completed(HttpResponse response) {
+			int status = response.getStatusLine().getStatusCode();
+
+			// Answer an authentication challenge, but only once per request.
+			if (status == HttpURLConnection.HTTP_UNAUTHORIZED
+					&& credentials != null && !challenged) {
+				challenged = true;
+				if (credentials.challenge(response
+						.getHeaders("WWW-Authenticate")) && isRepeatable()) {
+					EntityUtils.consumeQuietly(response.getEntity());
+					send();
+
+					return;
+				}
+			}
+
+			callback.completed(response);
+		}
+
+		@Override
+		public void failed(Exception e) {
+			callback.failed(e);
+		}
+
+		@Override
+		public void cancelled() {
+			callback.cancelled();
+		}
+
+		private boolean isRepeatable() {
+			if (request instanceof HttpEntityEnclosingRequest) {
+				HttpEntity entity = ((HttpEntityEnclosingRequest) request)
+						.getEntity();
+
+				return entity == null || entity.isRepeatable();
+			}
+
+			return true;
+		}
+	}
+
+	/*
+	 * Turns the raw response into the result of the request and completes the
+	 * future that was handed back to the caller. Cancelling that future
+	 * aborts the request.
+	 */
+	private static abstract class ResponseCallback<T> implements
+			FutureCallback<HttpResponse> {
+
+		final BasicFuture<T> future;
+		volatile Exchange exchange;
+
+		ResponseCallback(FutureCallback<T> callback) {
+			future = new BasicFuture<T>(callback) {
+				@Override
+				public boolean cancel(boolean mayInterruptIfRunning) {
+					boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+					Exchange current = exchange;
+					if (cancelled && current != null) {
+						current.abort();
+					}
+
+					return cancelled;
+				}
+			};
+		}
+
+		abstract T handle(HttpResponse response) throws IOException;
+
+		@Override
+		public void completed(HttpResponse response) {
+			try {
+				future.completed(handle(response));
+			} catch (Exception e) {
+				future.failed(e);
+			}
+		}
+
+		@Override
+		public void failed(Exception e) {
+			future.failed(e);
+		}
+
+		@Override
+		public void cancelled() {
+			future.cancel(true);
+		}
+	}
+}
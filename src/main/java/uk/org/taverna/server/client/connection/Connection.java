@@ -32,16 +32,28 @@
 
 package uk.org.taverna.server.client.connection;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.net.URI;
 
 import org.apache.commons.lang.math.LongRange;
 
 /**
+ * 
+ * Byte ranges passed to the read methods are inclusive. A range that ends at
+ * {@link Long#MAX_VALUE} is open ended and reads from its start to the end of
+ * the resource.
  * 
  * @author Robert Haines
  */
 public interface Connection {
+	/**
+	 * Open a stream over a resource. Streams are read straight from the
+	 * network and are never served from, or added to, a response cache, so
+	 * they can be used for resources of any size. If the server cannot be
+	 * reached an {@link UnreadableResponseException} is thrown.
+	 */
 	public InputStream readStream(URI uri, MimeType type, LongRange range,
 			UserCredentials credentials);
 
@@ -53,6 +65,48 @@ public interface Connection {
 
 	public byte[] read(URI uri, MimeType type, UserCredentials credentials);
 
+	/**
+	 * Read a resource in full and get a stream over it, so that the
+	 * underlying connection is not held open while the stream is being used.
+	 * Connections that honour the
+	 * {@link uk.org.taverna.server.client.util.MemoryBudget MemoryBudget} hold
+	 * the resource in memory if there is room and spill it to a temporary
+	 * file if there is not. Either way the stream should be closed when it is
+	 * finished with.
+	 * 
+	 * @param uri
+	 *            the resource to read.
+	 * @param type
+	 *            the type of the resource.
+	 * @param range
+	 *            the range of the resource to read, or <code>null</code>.
+	 * @param credentials
+	 *            the credentials to use, or <code>null</code>.
+	 * @return a stream over the resource.
+	 * @since 0.9.0
+	 */
+	public InputStream readBuffered(URI uri, MimeType type, LongRange range,
+			UserCredentials credentials);
+
+	/**
+	 * Read a resource and parse it. Connections that cache responses may
+	 * return a previously parsed object, without re-reading or re-parsing the
+	 * resource, if the server says that it has not changed.
+	 * 
+	 * @param uri
+	 *            the resource to read.
+	 * @param type
+	 *            the type of the resource.
+	 * @param credentials
+	 *            the credentials to use, or <code>null</code>.
+	 * @param parser
+	 *            the parser to use on the resource.
+	 * @return the parsed resource.
+	 * @since 0.9.0
+	 */
+	public <T> T read(URI uri, MimeType type, UserCredentials credentials,
+			ResponseParser<T> parser);
+
 	public URI update(URI uri, InputStream content, long length,
 			MimeType type, UserCredentials credentials);
 
@@ -62,6 +116,14 @@ public interface Connection {
 	public URI update(URI uri, InputStream content, MimeType type,
 			UserCredentials credentials);
 
+	/**
+	 * Upload the contents of a file, streaming it from disk.
+	 * 
+	 * @since 0.9.0
+	 */
+	public URI update(URI uri, File content, MimeType type,
+			UserCredentials credentials) throws FileNotFoundException;
+
 	public boolean delete(URI uri, UserCredentials credentials);
 
 	public URI create(URI uri, InputStream content, long length, MimeType type,
@@ -72,4 +134,19 @@ public interface Connection {
 
 	public URI create(URI uri, InputStream content, MimeType type,
 			UserCredentials credentials);
+
+	/**
+	 * Create a resource from the contents of a file, streaming it from disk.
+	 * 
+	 * @since 0.9.0
+	 */
+	public URI create(URI uri, File content, MimeType type,
+			UserCredentials credentials) throws FileNotFoundException;
+
+	/**
+	 * Shut down this connection and release all of its resources. Connections
+	 * obtained from {@link ConnectionFactory} are shared so they should be
+	 * handed back with {@link ConnectionFactory#release(Connection)} instead.
+	 */
+	public void shutdown();
 }
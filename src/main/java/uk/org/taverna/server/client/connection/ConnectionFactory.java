@@ -34,44 +34,69 @@ package uk.org.taverna.server.client.connection;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
+import uk.org.taverna.server.client.connection.params.AbstractConnectionParams;
 import uk.org.taverna.server.client.connection.params.ConnectionParams;
 import uk.org.taverna.server.client.connection.params.NullConnectionParams;
 
 /**
+ * The registry of connections to remote servers.
+ * 
+ * Connections are shared between all users of the same endpoint (scheme, host
+ * and port) that also use equal connection parameters, so two servers
+ * deployed on the same host share one connection pool. Parameters are
+ * compared as they were when the connection was made, so changing them
+ * afterwards does not affect which connection is shared. Connections made
+ * with parameters that do not extend {@link AbstractConnectionParams} are not
+ * shared. Each call to a
+ * <code>get</code> method takes a reference to the connection which should be
+ * handed back with the matching <code>release</code> method when it is no
+ * longer needed. A connection is shut down when its last reference is
+ * released.
+ * 
+ * All methods in this class are thread-safe.
  * 
  * @author Robert Haines
  */
 public class ConnectionFactory {
-	private static Map<URI, Connection> connections = new HashMap<URI, Connection>();
-
-	private ConnectionFactory() {
-	}
-
-	public static Connection getConnection(URI uri, ConnectionParams params) {
-		if (params == null) {
-			params = new NullConnectionParams();
+	private static final Registry<Connection> connections = new Registry<Connection>() {
+		@Override
+		Connection create(URI endpoint, ConnectionParams params) {
+			String scheme = endpoint.getScheme();
+			if (scheme.equals("http")) {
+				return new HttpConnection(endpoint, params);
+			} else {
+				return new HttpsConnection(endpoint, params);
+			}
 		}
 
-		Connection c = connections.get(uri);
+		@Override
+		void shutdown(Connection connection) {
+			connection.shutdown();
+		}
+	};
 
-		if (c == null) {
-			String scheme = uri.getScheme();
-			if (scheme.equalsIgnoreCase("http")) {
-				c = new HttpConnection(uri, params);
-			} else if (scheme.equalsIgnoreCase("https")) {
-				c = new HttpsConnection(uri, params);
-			} else {
-				throw new IllegalArgumentException(
-						"Must specify a scheme, e.g. http or https");
-			}
+	private static final Registry<AsyncConnection> asyncConnections = new Registry<AsyncConnection>() {
+		@Override
+		AsyncConnection create(URI endpoint, ConnectionParams params) {
+			return new AsyncHttpConnection(endpoint, params);
+		}
 
-			connections.put(uri, c);
+		@Override
+		void shutdown(AsyncConnection connection) {
+			connection.shutdown();
 		}
+	};
 
-		return c;
+	private ConnectionFactory() {
+	}
+
+	public static Connection getConnection(URI uri, ConnectionParams params) {
+		return connections.get(uri, params);
 	}
 
 	public static Connection getConnection(URI uri) {
@@ -87,4 +112,176 @@ public class ConnectionFactory {
 			throws URISyntaxException {
 		return getConnection(uri, null);
 	}
+
+	public static AsyncConnection getAsyncConnection(URI uri,
+			ConnectionParams params) {
+		return asyncConnections.get(uri, params);
+	}
+
+	public static AsyncConnection getAsyncConnection(URI uri) {
+		return getAsyncConnection(uri, null);
+	}
+
+	/**
+	 * Release a reference to a connection. The connection is shut down when
+	 * its last reference is released.
+	 * 
+	 * @param connection
+	 *            the connection to release.
+	 */
+	public static void release(Connection connection) {
+		connections.release(connection);
+	}
+
+	/**
+	 * Release a reference to an asynchronous connection. The connection is
+	 * shut down when its last reference is released.
+	 * 
+	 * @param connection
+	 *            the connection to release.
+	 */
+	public static void release(AsyncConnection connection) {
+		asyncConnections.release(connection);
+	}
+
+	/**
+	 * Shut down all connections, whether they are still referenced or not.
+	 * This is intended to be called when an application is shutting down.
+	 */
+	public static void shutdownAll() {
+		connections.shutdownAll();
+		asyncConnections.shutdownAll();
+	}
+
+	/*
+	 * Strip a URI down to its endpoint: scheme, host and port, with the
+	 * default port filled in if one is not given.
+	 */
+	private static URI getEndpoint(URI uri) {
+		String scheme = uri.getScheme();
+		if (scheme == null) {
+			throw new IllegalArgumentException(
+					"Must specify a scheme, e.g. http or https");
+		}
+
+		scheme = scheme.toLowerCase();
+		int port = uri.getPort();
+		if (scheme.equals("http")) {
+			port = (port != -1) ? port : 80;
+		} else if (scheme.equals("https")) {
+			port = (port != -1) ? port : 443;
+		} else {
+			throw new IllegalArgumentException(
+					"Must specify a scheme, e.g. http or https");
+		}
+
+		try {
+			return new URI(scheme, null, uri.getHost().toLowerCase(), port,
+					null, null, null);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Bad URI passed in: " + uri);
+		}
+	}
+
+	private static abstract class Registry<T> {
+		private final Map<Key, Entry<T>> entries = new HashMap<Key, Entry<T>>();
+
+		abstract T create(URI endpoint, ConnectionParams params);
+
+		abstract void shutdown(T connection);
+
+		synchronized T get(URI uri, ConnectionParams params) {
+			if (params == null) {
+				params = new NullConnectionParams();
+			}
+
+			Key key = new Key(getEndpoint(uri), params);
+			Entry<T> entry = entries.get(key);
+
+			if (entry == null) {
+				entry = new Entry<T>(create(key.endpoint, params));
+				entries.put(key, entry);
+			}
+
+			entry.references++;
+
+			return entry.connection;
+		}
+
+		synchronized void release(T connection) {
+			Iterator<Entry<T>> iterator = entries.values().iterator();
+			while (iterator.hasNext()) {
+				Entry<T> entry = iterator.next();
+
+				if (entry.connection == connection) {
+					entry.references--;
+
+					if (entry.references <= 0) {
+						iterator.remove();
+						shutdown(connection);
+					}
+
+					return;
+				}
+			}
+		}
+
+		synchronized void shutdownAll() {
+			for (Entry<T> entry : entries.values()) {
+				shutdown(entry.connection);
+			}
+
+			entries.clear();
+		}
+	}
+
+	private static final class Entry<T> {
+		final T connection;
+		int references;
+
+		Entry(T connection) {
+			this.connection = connection;
+			this.references = 0;
+		}
+	}
+
+	private static final class Key {
+		final URI endpoint;
+
+		// A snapshot, as the caller may change their parameters later.
+		private final Object params;
+		private final int hash;
+
+		Key(URI endpoint, ConnectionParams params) {
+			this.endpoint = endpoint;
+
+			if (params instanceof AbstractConnectionParams) {
+				this.params = Collections
+						.unmodifiableMap(((AbstractConnectionParams) params)
+								.getParameters());
+			} else {
+				// There is no way to copy these, so never share them.
+				this.params = new Object();
+			}
+
+			this.hash = (31 * endpoint.hashCode()) + this.params.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+
+			return endpoint.equals(other.endpoint)
+					&& params.equals(other.params);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * A retry policy that waits exponentially longer between each attempt, up to
+ * a maximum delay, with a random jitter so that many clients that failed at
+ * the same time do not all retry at the same time.
+ * 
+ * The idempotent methods (GET, HEAD, PUT and DELETE) are retried after an I/O
+ * error or a 502 (Bad Gateway), 503 (Service Unavailable) or 504 (Gateway
+ * Timeout) response. POST requests are only retried after a 503 response as
+ * the server has then definitely not acted upon them; this is what a server
+ * returns when it is at capacity and cannot create any more runs.
+ * 
+ * If the server sends a <code>Retry-After</code> header it is honoured as long
+ * as it is not longer than the maximum delay, otherwise the request is not
+ * retried.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+	/**
+	 * The default maximum number of retries: 3.
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+
+	/**
+	 * The default delay before the first retry: 500 milliseconds.
+	 */
+	public static final long DEFAULT_INITIAL_DELAY = 500;
+
+	/**
+	 * The default maximum delay between retries: 30 seconds.
+	 */
+	public static final long DEFAULT_MAX_DELAY = 30000;
+
+	private final int maxRetries;
+	private final long initialDelay;
+	private final long maxDelay;
+	private final Random random;
+
+	/**
+	 * Create a retry policy with the default settings.
+	 */
+	public ExponentialBackoffRetryPolicy() {
+		this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY);
+	}
+
+	/**
+	 * Create a retry policy.
+	 * 
+	 * @param maxRetries
+	 *            the maximum number of times to retry a request.
+	 * @param initialDelay
+	 *            the delay, in milliseconds, before the first retry. This is
+	 *            doubled for each subsequent retry.
+	 * @param maxDelay
+	 *            the maximum delay, in milliseconds, between retries.
+	 */
+	public ExponentialBackoffRetryPolicy(int maxRetries, long initialDelay,
+			long maxDelay) {
+		if (maxRetries < 0 || initialDelay < 0 || maxDelay < initialDelay) {
+			throw new IllegalArgumentException(
+					"Retry settings must be positive and maxDelay must not be less than initialDelay.");
+		}
+
+		this.maxRetries = maxRetries;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.random = new Random();
+	}
+
+	@Override
+	public long getRetryDelay(String method, int attempt, int status,
+			long retryAfter) {
+		if (attempt > maxRetries || !isRetryable(method, status)) {
+			return -1;
+		}
+
+		if (retryAfter >= 0) {
+			return (retryAfter <= maxDelay) ? retryAfter : -1;
+		}
+
+		// Double the delay for each attempt, without going past the maximum.
+		long delay = maxDelay;
+		int shift = attempt - 1;
+		if (shift < 63 && initialDelay <= (maxDelay >> shift)) {
+			delay = initialDelay << shift;
+		}
+
+		// Pick a delay between half and all of the full delay.
+		long half = delay / 2;
+		return half + (long) (random.nextDouble() * (delay - half));
+	}
+
+	/**
+	 * Get the maximum number of times a request will be retried.
+	 * 
+	 * @return the maximum number of retries.
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Get the delay before the first retry.
+	 * 
+	 * @return the initial delay in milliseconds.
+	 */
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	/**
+	 * Get the maximum delay between retries.
+	 * 
+	 * @return the maximum delay in milliseconds.
+	 */
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	private boolean isRetryable(String method, int status) {
+		if ("POST".equals(method)) {
+			return status == HttpURLConnection.HTTP_UNAVAILABLE;
+		}
+
+		if (!("GET".equals(method) || "HEAD".equals(method)
+				|| "PUT".equals(method) || "DELETE".equals(method))) {
+			return false;
+		}
+
+		switch (status) {
+		case -1:
+		case HttpURLConnection.HTTP_BAD_GATEWAY:
+		case HttpURLConnection.HTTP_UNAVAILABLE:
+		case HttpURLConnection.HTTP_GATEWAY_TIMEOUT:
+			return true;
+		default:
+			return false;
+		}
+	}
+}
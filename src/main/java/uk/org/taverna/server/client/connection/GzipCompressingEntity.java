@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * An entity wrapper that gzip compresses its content as it is written out.
+ * The compressed length is not known in advance so the content is always
+ * sent chunked.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class GzipCompressingEntity extends HttpEntityWrapper {
+
+	private static final Header CONTENT_ENCODING = new BasicHeader(
+			"Content-Encoding", "gzip");
+
+	GzipCompressingEntity(HttpEntity entity) {
+		super(entity);
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return CONTENT_ENCODING;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		throw new UnsupportedOperationException(
+				"Compressed content can only be written to a stream.");
+	}
+
+	@Override
+	public void writeTo(OutputStream outstream) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(outstream);
+		wrappedEntity.writeTo(gzip);
+
+		// Finish, rather than close, so the underlying stream stays open.
+		gzip.finish();
+	}
+}
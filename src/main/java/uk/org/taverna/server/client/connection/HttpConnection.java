@@ -32,48 +32,101 @@
 
 package uk.org.taverna.server.client.connection;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.util.Date;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.math.LongRange;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.UserTokenHandler;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
 import org.apache.http.client.utils.HttpClientUtils;
-import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
 import uk.org.taverna.server.client.ServerAtCapacityException;
+import uk.org.taverna.server.client.connection.params.ConnectionPNames;
 import uk.org.taverna.server.client.connection.params.ConnectionParams;
 
 /**
  * 
  * @author Robert Haines
  */
-public class HttpConnection extends AbstractConnection {
+public class HttpConnection extends AbstractConnection implements
+		ConnectionPNames {
+
+	/*
+	 * The connection pool defaults. The per route default is raised from the
+	 * HttpClient default of 2 as nearly all requests go to the same server.
+	 */
+	private final static int DEFAULT_MAX_TOTAL = 20;
+	private final static int DEFAULT_MAX_PER_ROUTE = 20;
+
+	/*
+	 * Uploads smaller than this are not worth compressing.
+	 */
+	private final static long MIN_COMPRESS_LENGTH = 1024;
 
 	protected final URI uri;
 
 	protected final ConnectionParams params;
 
+	protected final PoolingClientConnectionManager connectionManager;
 	protected final HttpClient httpClient;
-	protected final HttpContext httpContext;
+
+	// Cookies are kept per user. Guarded by cookieStores.
+	private final Map<UserCredentials, CookieStore> cookieStores;
+	private final CookieStore anonymousCookies;
+
+	private final IdleConnectionEvictor evictor;
+
+	private final RetryPolicy retryPolicy;
+	private final RetryListener retryListener;
+	private final AtomicLong retryCount;
+
+	private final boolean compressResponses;
+	private final boolean compressUploads;
+
+	private final ResponseCache cache;
 
 	HttpConnection(URI uri, ConnectionParams params) {
 		this.uri = uri;
@@ -82,30 +135,177 @@ public class HttpConnection extends AbstractConnection {
 		SchemeRegistry registry = new SchemeRegistry();
 		Scheme httpScheme = new Scheme("http", 80, new PlainSocketFactory());
 		registry.register(httpScheme);
-		ClientConnectionManager cm = new PoolingClientConnectionManager(
-				registry);
+		connectionManager = new PoolingClientConnectionManager(registry);
+		connectionManager.setMaxTotal(params.getIntParameter(POOL_MAX_TOTAL,
+				DEFAULT_MAX_TOTAL));
+		connectionManager.setDefaultMaxPerRoute(params.getIntParameter(
+				POOL_MAX_PER_ROUTE, DEFAULT_MAX_PER_ROUTE));
+
+		// Only override the HttpClient defaults that have been set.
+		HttpParams httpParams = new BasicHttpParams();
+		if (params.getParameter(TCP_NO_DELAY) != null) {
+			HttpConnectionParams.setTcpNoDelay(httpParams,
+					params.isParameterTrue(TCP_NO_DELAY));
+		}
+		if (params.getParameter(SOCKET_BUFFER_SIZE) != null) {
+			HttpConnectionParams.setSocketBufferSize(httpParams,
+					params.getIntParameter(SOCKET_BUFFER_SIZE, 0));
+		}
+		if (params.getParameter(CONNECT_TIMEOUT) != null) {
+			HttpConnectionParams.setConnectionTimeout(httpParams,
+					params.getIntParameter(CONNECT_TIMEOUT, 0));
+		}
+		if (params.getParameter(READ_TIMEOUT) != null) {
+			HttpConnectionParams.setSoTimeout(httpParams,
+					params.getIntParameter(READ_TIMEOUT, 0));
+		}
+
+		DefaultHttpClient client = new DefaultHttpClient(connectionManager,
+				httpParams);
+
+		final long keepAlive = params.getLongParameter(KEEP_ALIVE, -1);
+		if (keepAlive >= 0) {
+			// Use the server's keep alive time if it is shorter than ours.
+			client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+				@Override
+				public long getKeepAliveDuration(HttpResponse response,
+						HttpContext context) {
+					long duration = super.getKeepAliveDuration(response,
+							context);
+
+					return (duration > 0) ? Math.min(duration, keepAlive)
+							: keepAlive;
+				}
+			});
+		}
+
+		// Ask for compressed responses and decompress them transparently.
+		compressResponses = params.isParameterTrue(COMPRESS_RESPONSES);
+		if (compressResponses) {
+			client.addRequestInterceptor(new RequestAcceptEncoding());
+			client.addResponseInterceptor(new ResponseContentEncoding());
+		}
+		compressUploads = params.isParameterTrue(COMPRESS_UPLOADS);
+
+		/*
+		 * Connections carry no per-user state (users are authenticated per
+		 * request) so do not tie pooled connections to the user token, such
+		 * as an SSL client principal, left in the context of the request that
+		 * opened them. Otherwise connections would not be reused as each
+		 * request has a new context.
+		 */
+		client.setUserTokenHandler(new UserTokenHandler() {
+			@Override
+			public Object getUserToken(HttpContext context) {
+				return null;
+			}
+		});
+
+		httpClient = client;
+		cookieStores = new WeakHashMap<UserCredentials, CookieStore>();
+		anonymousCookies = new BasicCookieStore();
+
+		long idleTimeout = params.getLongParameter(POOL_IDLE_TIMEOUT, 0);
+		if (idleTimeout > 0) {
+			evictor = new IdleConnectionEvictor(connectionManager, idleTimeout);
+			evictor.start();
+		} else {
+			evictor = null;
+		}
+
+		retryPolicy = (RetryPolicy) params.getParameter(RETRY_POLICY);
+		retryListener = (RetryListener) params.getParameter(RETRY_LISTENER);
+		retryCount = new AtomicLong();
+
+		int cacheSize = params.getIntParameter(CACHE_SIZE, 0);
+		cache = (cacheSize > 0) ? new ResponseCache(cacheSize) : null;
+	}
+
+	/**
+	 * Get the current statistics of the connection pool used by this
+	 * connection: the number of leased, available and pending connections and
+	 * the maximum pool size.
+	 * 
+	 * @return the connection pool statistics.
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
 
-		httpClient = new DefaultHttpClient(cm, new BasicHttpParams());
-		httpContext = new BasicHttpContext();
+	/**
+	 * Get the number of times that requests made through this connection have
+	 * been retried after a transient failure.
+	 * 
+	 * @return the number of retries.
+	 * @see RetryPolicy
+	 */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	/**
+	 * Get the number of reads that have been answered from the response cache
+	 * after the server said that the resource had not changed.
+	 * 
+	 * @return the number of cache hits, always zero if the cache is not
+	 *         enabled.
+	 * @see ConnectionPNames#CACHE_SIZE
+	 */
+	public long getCacheHits() {
+		return (cache == null) ? 0 : cache.getHits();
+	}
+
+	/**
+	 * Get the number of cacheable reads that could not be answered from the
+	 * response cache.
+	 * 
+	 * @return the number of cache misses, always zero if the cache is not
+	 *         enabled.
+	 * @see ConnectionPNames#CACHE_SIZE
+	 */
+	public long getCacheMisses() {
+		return (cache == null) ? 0 : cache.getMisses();
+	}
+
+	/*
+	 * Content given as a byte array is sent as a repeatable entity so that the
+	 * request can be retried if it fails.
+	 */
+	@Override
+	public URI create(URI uri, byte[] content, MimeType type,
+			UserCredentials credentials) {
+		return create(uri, new ByteArrayEntity(content), type, credentials);
 	}
 
 	@Override
 	public URI create(URI uri, InputStream content, long length, MimeType type,
 			UserCredentials credentials) {
+		return create(uri, new InputStreamEntity(content, length), type,
+				credentials);
+	}
+
+	/*
+	 * Files are sent straight from disk by a repeatable entity.
+	 */
+	@Override
+	public URI create(URI uri, File content, MimeType type,
+			UserCredentials credentials) throws FileNotFoundException {
+		checkFile(content);
+
+		return create(uri, new FileChannelEntity(content), type, credentials);
+	}
+
+	private URI create(URI uri, AbstractHttpEntity entity, MimeType type,
+			UserCredentials credentials) {
 		HttpPost request = new HttpPost(uri);
 		URI location = null;
 
-		if (credentials != null) {
-			credentials.authenticate(request, httpContext);
-		}
-
 		HttpResponse response = null;
 		try {
-			InputStreamEntity entity = new InputStreamEntity(content, length);
 			entity.setContentType(type.contentType);
-			request.setEntity(entity);
+			request.setEntity(compress(entity));
 
-			response = httpClient.execute(request, httpContext);
+			response = execute(request, credentials);
 
 			if (!isSuccess(response, HttpURLConnection.HTTP_CREATED)) {
 				error(response, uri);
@@ -129,22 +329,26 @@ public class HttpConnection extends AbstractConnection {
 	@Override
 	public InputStream readStream(URI uri, MimeType type, LongRange range,
 			UserCredentials credentials) {
-		HttpEntity entity = get(uri, type, range, credentials);
+		HttpGet request = new HttpGet(uri);
+
+		// Streams may be of any size so they bypass the cache.
+		HttpEntity entity = get(request, uri, type, range, credentials, false);
 
-		InputStream stream = null;
 		try {
-			stream = entity.getContent();
+			return new AbortableInputStream(entity.getContent(), request);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			request.abort();
+			throw new UnreadableResponseException(uri, e);
 		}
-
-		return stream;
 	}
 
 	private HttpEntity get(URI uri, MimeType type, LongRange range,
 			UserCredentials credentials) {
-		HttpGet request = new HttpGet(uri);
+		return get(new HttpGet(uri), uri, type, range, credentials, true);
+	}
+
+	private HttpEntity get(HttpGet request, URI uri, MimeType type,
+			LongRange range, UserCredentials credentials, boolean useCache) {
 		int success = HttpURLConnection.HTTP_OK;
 
 		if (type != null) {
@@ -152,37 +356,86 @@ public class HttpConnection extends AbstractConnection {
 		}
 
 		if (range != null) {
-			request.addHeader("Range", "bytes=" + range.getMinimumLong() + "-"
-					+ range.getMaximumLong());
+			request.addHeader("Range", getRangeSpec(range));
 			success = HttpURLConnection.HTTP_PARTIAL;
+
+			// A range of compressed content is no use to us.
+			if (compressResponses) {
+				request.addHeader("Accept-Encoding", "identity");
+			}
 		}
 
-		if (credentials != null) {
-			credentials.authenticate(request, httpContext);
+		// Revalidate a cached copy, if we have one.
+		boolean cacheable = (useCache && cache != null && range == null
+				&& ResponseCache.isCacheable(type));
+		ResponseCache.CachedEntity cached = null;
+		if (cacheable) {
+			cached = cache.prepare(request, uri, type, credentials);
 		}
 
 		HttpResponse response = null;
 		try {
-			response = httpClient.execute(request, httpContext);
+			response = execute(request, credentials);
 
 			HttpEntity entity = response.getEntity();
-			if (isSuccess(response, success)) {
-				return entity;
+			if (cached != null
+					&& isSuccess(response, HttpURLConnection.HTTP_NOT_MODIFIED)) {
+				EntityUtils.consumeQuietly(entity);
+				cache.hit();
+
+				return cached;
+			} else if (isSuccess(response, success)) {
+				if (!cacheable) {
+					return entity;
+				}
+
+				cache.miss();
+				if (!ResponseCache.hasValidators(response)) {
+					cache.remove(uri, type, credentials);
+
+					return entity;
+				}
+
+				return cache.put(uri, type, credentials, response,
+						ResponseBuffer.toByteArray(entity));
 			} else {
 				error(response, entity, uri);
 			}
-
-		} catch (ClientProtocolException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// The server could not be reached, or the connection failed.
+			request.abort();
+			throw new UnreadableResponseException(uri, e);
 		}
 
+		// Not reached, error() always throws.
 		return null;
 	}
 
+	@Override
+	public <T> T read(URI uri, MimeType type, UserCredentials credentials,
+			ResponseParser<T> parser) {
+		HttpEntity entity = get(uri, type, null, credentials);
+
+		try {
+			// Only parse cached content if it has not already been parsed.
+			if (entity instanceof ResponseCache.CachedEntity) {
+				return ((ResponseCache.CachedEntity) entity)
+						.getRepresentation(parser);
+			}
+
+			InputStream is = entity.getContent();
+			try {
+				return parser.parse(is);
+			} finally {
+				IOUtils.closeQuietly(is);
+			}
+		} catch (IOException e) {
+			throw new UnreadableResponseException(uri, e);
+		} finally {
+			EntityUtils.consumeQuietly(entity);
+		}
+	}
+
 	@Override
 	public byte[] read(URI uri, MimeType type, LongRange range,
 			UserCredentials credentials) {
@@ -190,33 +443,60 @@ public class HttpConnection extends AbstractConnection {
 		HttpEntity entity = get(uri, type, range, credentials);
 
 		try {
-			return EntityUtils.toByteArray(entity);
+			return ResponseBuffer.toByteArray(entity);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new UnreadableResponseException(uri, e);
 		} finally {
 			EntityUtils.consumeQuietly(entity);
 		}
+	}
 
-		return null;
+	@Override
+	public InputStream readBuffered(URI uri, MimeType type, LongRange range,
+			UserCredentials credentials) {
+
+		HttpEntity entity = get(uri, type, range, credentials);
+
+		try {
+			return ResponseBuffer.buffer(entity);
+		} catch (IOException e) {
+			throw new UnreadableResponseException(uri, e);
+		} finally {
+			EntityUtils.consumeQuietly(entity);
+		}
+	}
+
+	@Override
+	public URI update(URI uri, byte[] content, MimeType type,
+			UserCredentials credentials) {
+		return update(uri, new ByteArrayEntity(content), type, credentials);
 	}
 
 	@Override
 	public URI update(URI uri, InputStream content, long length,
 			MimeType type, UserCredentials credentials) {
-		HttpPut request = new HttpPut(uri);
+		return update(uri, new InputStreamEntity(content, length), type,
+				credentials);
+	}
 
-		if (credentials != null) {
-			credentials.authenticate(request, httpContext);
-		}
+	@Override
+	public URI update(URI uri, File content, MimeType type,
+			UserCredentials credentials) throws FileNotFoundException {
+		checkFile(content);
+
+		return update(uri, new FileChannelEntity(content), type, credentials);
+	}
+
+	private URI update(URI uri, AbstractHttpEntity entity, MimeType type,
+			UserCredentials credentials) {
+		HttpPut request = new HttpPut(uri);
 
 		HttpResponse response = null;
 		try {
-			InputStreamEntity entity = new InputStreamEntity(content, length);
 			entity.setContentType(type.contentType);
-			request.setEntity(entity);
+			request.setEntity(compress(entity));
 
-			response = httpClient.execute(request, httpContext);
+			response = execute(request, credentials);
 
 			/*
 			 * There are three possible "success" responses from the server:
@@ -254,13 +534,9 @@ public class HttpConnection extends AbstractConnection {
 	public boolean delete(URI uri, UserCredentials credentials) {
 		HttpDelete request = new HttpDelete(uri);
 
-		if (credentials != null) {
-			credentials.authenticate(request, httpContext);
-		}
-
 		HttpResponse response = null;
 		try {
-			response = httpClient.execute(request, httpContext);
+			response = execute(request, credentials);
 
 			if (isSuccess(response, HttpURLConnection.HTTP_NO_CONTENT)) {
 				return true;
@@ -280,11 +556,208 @@ public class HttpConnection extends AbstractConnection {
 		return false;
 	}
 
-	private boolean isSuccess(HttpResponse response, int success) {
+	/*
+	 * Check that a file can be uploaded before starting the request, so that
+	 * a missing file is reported to the caller rather than as a failed
+	 * request.
+	 */
+	private static void checkFile(File file) throws FileNotFoundException {
+		if (!file.isFile() || !file.canRead()) {
+			throw new FileNotFoundException("Cannot read file: " + file);
+		}
+	}
+
+	/*
+	 * Compress upload content if we have been asked to and it is big enough
+	 * to be worth it. Content of unknown length is always compressed.
+	 */
+	private HttpEntity compress(HttpEntity entity) {
+		if (!compressUploads) {
+			return entity;
+		}
+
+		long length = entity.getContentLength();
+		if (length >= 0 && length < MIN_COMPRESS_LENGTH) {
+			return entity;
+		}
+
+		return new GzipCompressingEntity(entity);
+	}
+
+	/*
+	 * Execute a request, authenticating it and retrying it according to the
+	 * retry policy if it fails with an I/O error or a server error. Requests
+	 * with content that cannot be sent twice are only tried once.
+	 */
+	private HttpResponse execute(HttpUriRequest request,
+			UserCredentials credentials) throws IOException {
+		String method = request.getMethod();
+		boolean repeatable = true;
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request)
+					.getEntity();
+			repeatable = (entity == null || entity.isRepeatable());
+		}
+
+		HttpContext context = createContext(credentials);
+		boolean challenged = false;
+		int attempt = 0;
+		while (true) {
+			if (credentials != null) {
+				request.removeHeaders("Authorization");
+				credentials.authenticate(request, context);
+			}
+
+			attempt++;
+			HttpResponse response = null;
+			IOException failure = null;
+			try {
+				response = httpClient.execute(request, context);
+			} catch (ClientProtocolException e) {
+				// Not transient so do not retry.
+				throw e;
+			} catch (IOException e) {
+				failure = e;
+			}
+
+			int status = (response == null) ? -1 : response.getStatusLine()
+					.getStatusCode();
+
+			// Answer an authentication challenge, but only once per request.
+			if (status == HttpURLConnection.HTTP_UNAUTHORIZED
+					&& credentials != null && !challenged) {
+				challenged = true;
+				if (credentials.challenge(response
+						.getHeaders("WWW-Authenticate")) && repeatable) {
+					EntityUtils.consumeQuietly(response.getEntity());
+					attempt--;
+
+					continue;
+				}
+			}
+
+			long delay = -1;
+			if (retryPolicy != null && repeatable
+					&& (status == -1 || status >= 500)) {
+				delay = retryPolicy.getRetryDelay(method, attempt, status,
+						getRetryAfter(response));
+			}
+
+			if (delay < 0) {
+				if (failure != null) {
+					throw failure;
+				}
+
+				return response;
+			}
+
+			if (response != null) {
+				EntityUtils.consumeQuietly(response.getEntity());
+			}
+
+			retryCount.incrementAndGet();
+			if (retryListener != null) {
+				retryListener.retrying(request.getURI(), method, attempt,
+						status, delay);
+			}
+
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting to retry " + method + " "
+								+ request.getURI());
+			}
+		}
+	}
+
+	/*
+	 * Each request gets its own context so that requests from any number of
+	 * threads, and for any number of users, can be made at the same time.
+	 * Only the cookies are shared between the requests of the same user.
+	 */
+	private HttpContext createContext(UserCredentials credentials) {
+		HttpContext context = new BasicHttpContext();
+		context.setAttribute(ClientContext.COOKIE_STORE,
+				getCookieStore(credentials));
+
+		return context;
+	}
+
+	private CookieStore getCookieStore(UserCredentials credentials) {
+		if (credentials == null) {
+			return anonymousCookies;
+		}
+
+		synchronized (cookieStores) {
+			CookieStore store = cookieStores.get(credentials);
+			if (store == null) {
+				store = new BasicCookieStore();
+				cookieStores.put(credentials, store);
+			}
+
+			return store;
+		}
+	}
+
+	/*
+	 * Get the wait requested by a Retry-After header in milliseconds, or -1.
+	 * The header can be either a number of seconds or an HTTP date.
+	 */
+	private static long getRetryAfter(HttpResponse response) {
+		if (response == null) {
+			return -1;
+		}
+
+		Header header = response.getFirstHeader("Retry-After");
+		if (header == null) {
+			return -1;
+		}
+
+		String value = header.getValue().trim();
+		try {
+			return Math.max(Long.parseLong(value), 0) * 1000;
+		} catch (NumberFormatException e) {
+			// Try it as a date instead.
+		}
+
+		try {
+			Date date = DateUtils.parseDate(value);
+
+			return Math.max(date.getTime() - System.currentTimeMillis(), 0);
+		} catch (DateParseException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		if (evictor != null) {
+			evictor.shutdown();
+		}
+
+		connectionManager.shutdown();
+	}
+
+	/*
+	 * A range that ends at Long.MAX_VALUE is open ended: it asks for
+	 * everything from its start to the end of the resource.
+	 */
+	static String getRangeSpec(LongRange range) {
+		if (range.getMaximumLong() == Long.MAX_VALUE) {
+			return "bytes=" + range.getMinimumLong() + "-";
+		}
+
+		return "bytes=" + range.getMinimumLong() + "-"
+				+ range.getMaximumLong();
+	}
+
+	static boolean isSuccess(HttpResponse response, int success) {
 		return response.getStatusLine().getStatusCode() == success;
 	}
 
-	private void error(HttpResponse response, HttpEntity entity, URI requestURI) {
+	static void error(HttpResponse response, HttpEntity entity, URI requestURI) {
 		int status = response.getStatusLine().getStatusCode();
 
 		// We need to save any content from the entity for error messages, then
@@ -322,7 +795,7 @@ public class HttpConnection extends AbstractConnection {
 		}
 	}
 
-	private void error(HttpResponse response, URI requestURI) {
+	static void error(HttpResponse response, URI requestURI) {
 		error(response, response.getEntity(), requestURI);
 	}
 }
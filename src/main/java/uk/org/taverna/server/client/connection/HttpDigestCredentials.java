@@ -32,20 +32,49 @@
 
 package uk.org.taverna.server.client.connection;
 
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.impl.auth.DigestScheme;
+import org.apache.http.protocol.HttpContext;
 
 /**
+ * Digest authentication credentials.
+ * 
+ * The server's challenge is kept and reused for subsequent requests, with an
+ * increasing nonce count, so that there is only an extra round trip when the
+ * server sends a new challenge. Each request still needs a new Authorization
+ * header as the digest covers the request method and URI.
  * 
  * @author Robert Haines
  */
 public final class HttpDigestCredentials extends UserCredentials {
+
+	// Guarded by this.
+	private boolean challenged;
+
 	public HttpDigestCredentials(String username, String password) {
 		super(new DigestScheme(), new UsernamePasswordCredentials(username,
 				password));
+		challenged = false;
 	}
 
 	public HttpDigestCredentials(String userinfo) {
 		super(new DigestScheme(), new UsernamePasswordCredentials(userinfo));
+		challenged = false;
+	}
+
+	@Override
+	protected synchronized Header getAuthorization(HttpRequest request,
+			HttpContext context) {
+		// We cannot authenticate until we have been sent a challenge.
+		return challenged ? createAuthorization(request, context) : null;
+	}
+
+	@Override
+	public synchronized boolean challenge(Header[] challenges) {
+		challenged = processChallenge(challenges);
+
+		return challenged;
 	}
 }
@@ -51,6 +51,7 @@ import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.AllowAllHostnameVerifier;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
 
 import uk.org.taverna.server.client.connection.params.ConnectionPNames;
 import uk.org.taverna.server.client.connection.params.ConnectionParams;
@@ -68,6 +69,23 @@ public class HttpsConnection extends HttpConnection implements ConnectionPNames
 		int remotePort = uri.getPort();
 		remotePort = (remotePort != -1) ? remotePort : 443;
 
+		SSLContext sslcontext = createSSLContext(params);
+		if (sslcontext != null) {
+			SSLSocketFactory sf = new SSLSocketFactory(sslcontext,
+					getHostnameVerifier(params));
+
+			Scheme httpsScheme = new Scheme("https", remotePort, sf);
+			SchemeRegistry schemeRegistry = httpClient.getConnectionManager()
+					.getSchemeRegistry();
+			schemeRegistry.register(httpsScheme);
+		}
+	}
+
+	/*
+	 * Build an SSL context that uses the trust settings in the supplied
+	 * connection parameters. Shared with the asynchronous connection.
+	 */
+	static SSLContext createSSLContext(ConnectionParams params) {
 		try {
 			TrustManager[] trustManagers = null;
 
@@ -99,18 +117,7 @@ public class HttpsConnection extends HttpConnection implements ConnectionPNames
 			SSLContext sslcontext = SSLContext.getInstance("TLS");
 			sslcontext.init(null, trustManagers, null);
 
-			SSLSocketFactory sf;
-			if (params.getBooleanParameter(SSL_NO_VERIFY_HOST, false)) {
-				sf = new SSLSocketFactory(sslcontext,
-						new AllowAllHostnameVerifier());
-			} else {
-				sf = new SSLSocketFactory(sslcontext);
-			}
-
-			Scheme httpsScheme = new Scheme("https", remotePort, sf);
-			SchemeRegistry schemeRegistry = httpClient.getConnectionManager()
-					.getSchemeRegistry();
-			schemeRegistry.register(httpsScheme);
+			return sslcontext;
 		} catch (KeyManagementException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -127,9 +134,19 @@ public class HttpsConnection extends HttpConnection implements ConnectionPNames
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+
+		return null;
+	}
+
+	static X509HostnameVerifier getHostnameVerifier(ConnectionParams params) {
+		if (params.getBooleanParameter(SSL_NO_VERIFY_HOST, false)) {
+			return new AllowAllHostnameVerifier();
+		} else {
+			return SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+		}
 	}
 
-	private TrustManager getDefaultTrustManager()
+	private static TrustManager getDefaultTrustManager()
 			throws NoSuchAlgorithmException, KeyStoreException {
 		TrustManagerFactory trustManagerFactory = TrustManagerFactory
 				.getInstance(TrustManagerFactory.getDefaultAlgorithm());
@@ -145,7 +162,7 @@ public class HttpsConnection extends HttpConnection implements ConnectionPNames
 		return null;
 	}
 
-	private class OpenTrustManager implements X509TrustManager {
+	private static class OpenTrustManager implements X509TrustManager {
 		@Override
 		public void checkClientTrusted(X509Certificate[] chain, String authType)
 				throws CertificateException {
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionManager;
+
+/**
+ * A background thread that periodically closes pooled connections that have
+ * expired or have been idle for longer than a set time.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class IdleConnectionEvictor extends Thread {
+
+	private final ClientConnectionManager manager;
+	private final long idleTime;
+	private volatile boolean shutdown;
+
+	IdleConnectionEvictor(ClientConnectionManager manager, long idleTime) {
+		super("Taverna Server idle connection evictor");
+		setDaemon(true);
+
+		this.manager = manager;
+		this.idleTime = idleTime;
+		this.shutdown = false;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!shutdown) {
+				synchronized (this) {
+					// Check twice per idle period so that no connection is
+					// kept for more than half as long again as it should be.
+					wait(Math.max(idleTime / 2, 1));
+				}
+
+				manager.closeExpiredConnections();
+				manager.closeIdleConnections(idleTime, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			// Stop.
+		}
+	}
+
+	void shutdown() {
+		shutdown = true;
+
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+}
@@ -42,7 +42,7 @@ package uk.org.taverna.server.client.connection;
  */
 public enum MimeType {
 
-	ANY("*/*"), BYTES("application/octet-stream"), T2FLOW(
+	ANY("*/*"), ATOM("application/atom+xml"), BYTES("application/octet-stream"), T2FLOW(
 			"application/vnd.taverna.t2flow+xml"), TEXT("text/plain"), XML(
 					"application/xml"), ZIP("application/zip");
 
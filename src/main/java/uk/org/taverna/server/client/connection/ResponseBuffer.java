@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+
+import uk.org.taverna.server.client.util.BufferPool;
+import uk.org.taverna.server.client.util.IOUtils;
+import uk.org.taverna.server.client.util.MemoryBudget;
+import uk.org.taverna.server.client.util.PooledByteArrayOutputStream;
+
+/**
+ * Read whole response bodies within the limits of the {@link MemoryBudget}.
+ * 
+ * Bodies of unknown length are collected a buffer at a time, reserving space
+ * as they grow. If the budget runs out part way through, what has been read
+ * so far and the rest of the body are spilled to a temporary file instead.
+ * Nothing ever waits for space while holding a reservation, so readers
+ * cannot deadlock each other.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class ResponseBuffer {
+
+	private ResponseBuffer() {
+	}
+
+	/**
+	 * Read a whole entity into an array, waiting for space in the budget if
+	 * there is not enough free.
+	 */
+	static byte[] toByteArray(HttpEntity entity) throws IOException {
+		InputStream is = entity.getContent();
+
+		try {
+			long length = entity.getContentLength();
+			if (length >= 0) {
+				MemoryBudget.acquire(length);
+				try {
+					return IOUtils.toByteArray(is, length);
+				} finally {
+					MemoryBudget.release(length);
+				}
+			}
+
+			Body body = collect(is);
+			if (body.file == null) {
+				MemoryBudget.release(body.reserved);
+				return body.data;
+			}
+
+			// It has been spilled, so now we know how much space we need.
+			length = body.file.length();
+			InputStream fis = new FileInputStream(body.file);
+			MemoryBudget.acquire(length);
+			try {
+				return IOUtils.toByteArray(fis, length);
+			} finally {
+				MemoryBudget.release(length);
+				org.apache.commons.io.IOUtils.closeQuietly(fis);
+				body.file.delete();
+			}
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Read a whole entity and return a stream over it. The entity is held in
+	 * memory if there is space in the budget straight away, and that space is
+	 * held until the stream is closed. Otherwise it is spilled to a temporary
+	 * file which is deleted when the stream is closed.
+	 */
+	static InputStream buffer(HttpEntity entity) throws IOException {
+		InputStream is = entity.getContent();
+
+		try {
+			long length = entity.getContentLength();
+			if (length >= 0) {
+				if (!MemoryBudget.tryAcquire(length)) {
+					return IOUtils.openSpoolFile(spillToFile(null, null, 0, is));
+				}
+
+				try {
+					return new BudgetedInputStream(IOUtils.toByteArray(is,
+							length), length);
+				} catch (IOException e) {
+					MemoryBudget.release(length);
+					throw e;
+				}
+			}
+
+			Body body = collect(is);
+			if (body.file == null) {
+				return new BudgetedInputStream(body.data, body.reserved);
+			}
+
+			return IOUtils.openSpoolFile(body.file);
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(is);
+		}
+	}
+
+	/*
+	 * Collect a stream of unknown length in pooled buffers, reserving space a
+	 * buffer at a time, and spill it if the budget runs out. Any reservation
+	 * held for data that is returned in memory is passed back to the caller.
+	 */
+	private static Body collect(InputStream is) throws IOException {
+		PooledByteArrayOutputStream os = new PooledByteArrayOutputStream();
+		byte[] buffer = BufferPool.acquire();
+		long reserved = 0;
+
+		try {
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				if (os.size() + n > reserved) {
+					if (!MemoryBudget.tryAcquire(BufferPool.BUFFER_SIZE)) {
+						MemoryBudget.release(reserved);
+						reserved = 0;
+
+						return new Body(spillToFile(os, buffer, n, is));
+					}
+					reserved += BufferPool.BUFFER_SIZE;
+				}
+				os.write(buffer, 0, n);
+			}
+
+			Body body = new Body(os.toByteArray(), reserved);
+			reserved = 0;
+
+			return body;
+		} finally {
+			MemoryBudget.release(reserved);
+			BufferPool.release(buffer);
+			os.close();
+		}
+	}
+
+	/*
+	 * Write what has been read so far, then the rest of the stream, to a new
+	 * spool file.
+	 */
+	private static File spillToFile(PooledByteArrayOutputStream head,
+			byte[] buffer, int length, InputStream rest) throws IOException {
+		File spool = IOUtils.createSpoolFile();
+		OutputStream os = new FileOutputStream(spool);
+
+		try {
+			if (head != null) {
+				head.writeTo(os);
+			}
+			if (buffer != null) {
+				os.write(buffer, 0, length);
+			}
+			IOUtils.copy(rest, os);
+			os.close();
+		} catch (IOException e) {
+			org.apache.commons.io.IOUtils.closeQuietly(os);
+			spool.delete();
+			throw e;
+		}
+
+		return spool;
+	}
+
+	private static final class Body {
+		final byte[] data;
+		final long reserved;
+		final File file;
+
+		Body(byte[] data, long reserved) {
+			this.data = data;
+			this.reserved = reserved;
+			this.file = null;
+		}
+
+		Body(File file) {
+			this.data = null;
+			this.reserved = 0;
+			this.file = file;
+		}
+	}
+
+	/*
+	 * An in-memory stream that gives its space back to the budget when it is
+	 * closed.
+	 */
+	private static final class BudgetedInputStream extends
+			ByteArrayInputStream {
+		private long reserved;
+
+		BudgetedInputStream(byte[] data, long reserved) {
+			super(data);
+			this.reserved = reserved;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			MemoryBudget.release(reserved);
+			reserved = 0;
+			buf = new byte[0];
+			pos = count = mark = 0;
+		}
+	}
+}
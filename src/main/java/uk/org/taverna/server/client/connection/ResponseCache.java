@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * A cache of responses that carry validators (an <code>ETag</code> or a
+ * <code>Last-Modified</code> date) so that they can be revalidated with a
+ * conditional GET. If the server answers with 304 (Not Modified) the cached
+ * body, and anything that has been parsed from it, is used instead.
+ * 
+ * Entries are keyed by URI, requested type and credentials as different users
+ * may be given different views of the same resource. The least recently used
+ * entry is evicted when the cache is full.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class ResponseCache {
+
+	private final Map<Key, CachedEntity> entries;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	ResponseCache(final int maxEntries) {
+		entries = new LinkedHashMap<Key, CachedEntity>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, CachedEntity> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+	static boolean isCacheable(MimeType type) {
+		// Data values can be large so only cache descriptions and text.
+		return type == MimeType.XML || type == MimeType.TEXT
+				|| type == MimeType.ATOM;
+	}
+
+	synchronized CachedEntity get(URI uri, MimeType type,
+			UserCredentials credentials) {
+		return entries.get(new Key(uri, type, credentials));
+	}
+
+	/*
+	 * Add validators from an existing entry to a request, if there is one.
+	 */
+	CachedEntity prepare(HttpRequest request, URI uri, MimeType type,
+			UserCredentials credentials) {
+		CachedEntity entry = get(uri, type, credentials);
+
+		if (entry != null) {
+			if (entry.etag != null) {
+				request.addHeader("If-None-Match", entry.etag);
+			}
+			if (entry.lastModified != null) {
+				request.addHeader("If-Modified-Since", entry.lastModified);
+			}
+		}
+
+		return entry;
+	}
+
+	/*
+	 * Can a response be revalidated later? Only these are worth storing.
+	 */
+	static boolean hasValidators(HttpResponse response) {
+		return response.containsHeader("ETag")
+				|| response.containsHeader("Last-Modified");
+	}
+
+	/*
+	 * Store a successful response that has validators.
+	 */
+	CachedEntity put(URI uri, MimeType type, UserCredentials credentials,
+			HttpResponse response, byte[] content) {
+		CachedEntity entry = new CachedEntity(content, getHeader(response,
+				"ETag"), getHeader(response, "Last-Modified"));
+
+		synchronized (this) {
+			entries.put(new Key(uri, type, credentials), entry);
+		}
+
+		return entry;
+	}
+
+	synchronized void remove(URI uri, MimeType type,
+			UserCredentials credentials) {
+		entries.remove(new Key(uri, type, credentials));
+	}
+
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	private static String getHeader(HttpResponse response, String name) {
+		return response.containsHeader(name) ? response.getFirstHeader(name)
+				.getValue() : null;
+	}
+
+	/*
+	 * A cached response body. It is also an entity so that it can be handed
+	 * straight back to the code that asked for the resource; each call to
+	 * getContent() returns a new stream over the same bytes.
+	 */
+	static final class CachedEntity extends ByteArrayEntity {
+		private final byte[] body;
+		private final String etag;
+		private final String lastModified;
+
+		private ResponseParser<?> parser;
+		private Object representation;
+
+		private CachedEntity(byte[] content, String etag, String lastModified) {
+			super(content);
+			this.body = content;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		/*
+		 * Get the parsed form of this body, only parsing it if it has not
+		 * already been parsed by the same parser.
+		 */
+		@SuppressWarnings("unchecked")
+		synchronized <T> T getRepresentation(ResponseParser<T> parser)
+				throws IOException {
+			if (this.parser != parser || representation == null) {
+				representation = parser.parse(new ByteArrayInputStream(
+						body));
+				this.parser = parser;
+			}
+
+			return (T) representation;
+		}
+	}
+
+	private static final class Key {
+		final URI uri;
+		final MimeType type;
+		final UserCredentials credentials;
+
+		Key(URI uri, MimeType type, UserCredentials credentials) {
+			this.uri = uri;
+			this.type = type;
+			this.credentials = credentials;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			// Credentials are compared by identity as they are not values.
+			Key other = (Key) obj;
+
+			return uri.equals(other.uri) && type == other.type
+					&& credentials == other.credentials;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = (31 * uri.hashCode()) + type.hashCode();
+
+			return (31 * hash) + System.identityHashCode(credentials);
+		}
+	}
+}
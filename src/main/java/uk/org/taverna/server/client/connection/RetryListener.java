@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.net.URI;
+
+/**
+ * A listener that is told each time a request is about to be retried. It can
+ * be used to collect metrics on how often, and why, requests to a server fail.
+ * 
+ * Implementations must be thread-safe and should return quickly as they are
+ * called on the thread that is making the request.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ * @see RetryPolicy
+ */
+public interface RetryListener {
+
+	/**
+	 * Called before the connection waits to retry a failed request.
+	 * 
+	 * @param uri
+	 *            the URI of the failed request.
+	 * @param method
+	 *            the HTTP method of the failed request.
+	 * @param attempt
+	 *            the number of times the request has been tried so far.
+	 * @param status
+	 *            the HTTP status code returned by the server, or -1 if the
+	 *            request failed with an I/O error.
+	 * @param delay
+	 *            the time, in milliseconds, before the request is retried.
+	 */
+	public void retrying(URI uri, String method, int attempt, int status,
+			long delay);
+}
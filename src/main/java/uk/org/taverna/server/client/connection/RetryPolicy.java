@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+/**
+ * A policy that decides whether a request that failed with a transient error
+ * should be tried again and, if so, how long to wait before doing so.
+ * 
+ * A policy is consulted when a request fails with an I/O error or when the
+ * server responds with a 5xx status code. Requests that carry content that
+ * cannot be sent again, such as an arbitrary input stream, are never retried.
+ * 
+ * Implementations must be thread-safe as one policy is shared by all requests
+ * made through a connection.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ * @see ExponentialBackoffRetryPolicy
+ */
+public interface RetryPolicy {
+
+	/**
+	 * Decide whether to retry a failed request.
+	 * 
+	 * @param method
+	 *            the HTTP method of the failed request, such as "GET".
+	 * @param attempt
+	 *            the number of times the request has been tried so far.
+	 * @param status
+	 *            the HTTP status code returned by the server, or -1 if the
+	 *            request failed with an I/O error.
+	 * @param retryAfter
+	 *            the time, in milliseconds, that the server asked us to wait
+	 *            in a <code>Retry-After</code> header, or -1 if it did not.
+	 * @return the time, in milliseconds, to wait before trying again, or a
+	 *         negative number if the request should not be retried.
+	 */
+	public long getRetryDelay(String method, int attempt, int status,
+			long retryAfter);
+}
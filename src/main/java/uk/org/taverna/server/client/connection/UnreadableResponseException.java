@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import java.net.URI;
+
+import uk.org.taverna.server.client.ServerException;
+
+/**
+ * This exception is thrown if the body of a response could not be read, for
+ * example because the connection was dropped part way through, or could not
+ * be parsed.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class UnreadableResponseException extends ServerException {
+	private static final long serialVersionUID = 1L;
+
+	private static final String MESSAGE = "Could not read the response from";
+
+	private final URI uri;
+
+	/**
+	 * Construct the exception with the specified {@link URI} that was accessed
+	 * and the reason that its response could not be read.
+	 * 
+	 * @param uri
+	 *            the address that was accessed.
+	 * @param cause
+	 *            the reason that the response could not be read.
+	 */
+	public UnreadableResponseException(URI uri, Throwable cause) {
+		super(MESSAGE + " " + uri.toASCIIString(), cause);
+
+		this.uri = uri;
+	}
+
+	/**
+	 * Get the {@link URI} whose response could not be read.
+	 * 
+	 * @return the address that was accessed.
+	 */
+	public URI getURI() {
+		return uri;
+	}
+}
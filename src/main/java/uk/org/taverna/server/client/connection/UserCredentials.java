@@ -32,9 +32,11 @@
 
 package uk.org.taverna.server.client.connection;
 
+import org.apache.http.Header;
 import org.apache.http.HttpRequest;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.Credentials;
+import org.apache.http.auth.MalformedChallengeException;
 import org.apache.http.impl.auth.AuthSchemeBase;
 import org.apache.http.protocol.HttpContext;
 
@@ -47,21 +49,106 @@ public abstract class UserCredentials {
 	protected final AuthSchemeBase authenticator;
 	protected final Credentials credentials;
 
+	// Guarded by this.
+	private Header header;
+
 	protected UserCredentials(AuthSchemeBase scheme, Credentials credentials) {
 		authenticator = scheme;
 		this.credentials = credentials;
+		this.header = null;
 	}
 
 	public void authenticate(HttpRequest request, HttpContext context) {
+		Header auth = getAuthorization(request, context);
+
+		if (auth != null) {
+			request.addHeader(auth);
+		}
+	}
+
+	/**
+	 * Get the Authorization header for a request. By default the header is
+	 * created once and then reused for every request until the server rejects
+	 * it, which is correct for schemes, such as Basic, where the header does
+	 * not depend on the request.
+	 * 
+	 * @param request
+	 *            the request to be authenticated.
+	 * @param context
+	 *            the context that the request will be executed in.
+	 * @return the Authorization header, or <code>null</code> if one cannot be
+	 *         created until the server has sent a challenge.
+	 * @since 0.9.0
+	 */
+	protected synchronized Header getAuthorization(HttpRequest request,
+			HttpContext context) {
+		if (header == null) {
+			header = createAuthorization(request, context);
+		}
+
+		return header;
+	}
+
+	/**
+	 * Create a new Authorization header for a request.
+	 * 
+	 * @param request
+	 *            the request to be authenticated.
+	 * @param context
+	 *            the context that the request will be executed in.
+	 * @return the new Authorization header.
+	 * @since 0.9.0
+	 */
+	protected final Header createAuthorization(HttpRequest request,
+			HttpContext context) {
 		try {
-			request.addHeader(authenticator.authenticate(credentials, request,
-					context));
+			return authenticator.authenticate(credentials, request, context);
 		} catch (AuthenticationException e) {
 			throw new AuthenticationFailureException(getUsername(),
 					e.getMessage());
 		}
 	}
 
+	/**
+	 * Handle a request being rejected by the server. Any cached Authorization
+	 * header is dropped and the challenges sent by the server are processed.
+	 * 
+	 * @param challenges
+	 *            the WWW-Authenticate headers sent by the server.
+	 * @return <code>true</code> if the request should be tried again with new
+	 *         authorization, <code>false</code> otherwise.
+	 * @since 0.9.0
+	 */
+	public synchronized boolean challenge(Header[] challenges) {
+		header = null;
+
+		return false;
+	}
+
+	/**
+	 * Pass the first challenge that matches our authentication scheme to the
+	 * authenticator.
+	 * 
+	 * @param challenges
+	 *            the WWW-Authenticate headers sent by the server.
+	 * @return <code>true</code> if a challenge was processed,
+	 *         <code>false</code> otherwise.
+	 * @since 0.9.0
+	 */
+	protected final boolean processChallenge(Header[] challenges) {
+		for (Header challenge : challenges) {
+			try {
+				authenticator.processChallenge(challenge);
+
+				return true;
+			} catch (MalformedChallengeException e) {
+				// Not for us, try the next one.
+			}
+		}
+
+		return false;
+	}
+
 	public String getUsername() {
 		return credentials.getUserPrincipal().getName();
 	}
@@ -33,6 +33,7 @@
 package uk.org.taverna.server.client.connection.params;
 
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The superclass of all concrete connection parameter classes.
@@ -88,6 +89,74 @@ public abstract class AbstractConnectionParams implements ConnectionParams {
 		return this;
 	}
 
+	@Override
+	public int getIntParameter(String id, int defaultValue) {
+		Number number = (Number) params.get(id);
+		if (number == null) {
+			return defaultValue;
+		}
+
+		return number.intValue();
+	}
+
+	@Override
+	public ConnectionParams setIntParameter(String id, int value) {
+		params.put(id, value);
+
+		return this;
+	}
+
+	@Override
+	public long getLongParameter(String id, long defaultValue) {
+		Number number = (Number) params.get(id);
+		if (number == null) {
+			return defaultValue;
+		}
+
+		return number.longValue();
+	}
+
+	@Override
+	public ConnectionParams setLongParameter(String id, long value) {
+		params.put(id, value);
+
+		return this;
+	}
+
+	/**
+	 * Get a copy of the parameters that are set. Later changes to these
+	 * connection parameters do not change the copy.
+	 * 
+	 * @return a copy of the parameters, by name.
+	 * @since 0.9.0
+	 */
+	public Map<String, Object> getParameters() {
+		return new HashMap<String, Object>(params);
+	}
+
+	/**
+	 * Two sets of connection parameters are equal if they hold the same
+	 * parameters with the same values. Connections are shared between servers
+	 * with equal parameters, as they were when each connection was made.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof AbstractConnectionParams)) {
+			return false;
+		}
+
+		return params.equals(((AbstractConnectionParams) obj).params);
+	}
+
+	@Override
+	public int hashCode() {
+		return params.hashCode();
+	}
+
 	@Override
 	public boolean isParameterTrue(String id) {
 		return getBooleanParameter(id, false) == true;
@@ -42,4 +42,23 @@ public interface ConnectionPNames {
 	static String SSL_NO_VERIFY_HOST = "t2.conn.ssl.no-verify";
 	static String SSL_CLIENT_CERT = "t2.conn.ssl.client-cert";
 	static String SSL_NO_AUTH = "t2.conn.ssl.no-auth";
+	static String XML_WARM_UP = "t2.conn.xml.warm-up";
+	static String POOL_MAX_TOTAL = "t2.conn.pool.max-total";
+	static String POOL_MAX_PER_ROUTE = "t2.conn.pool.max-per-route";
+	static String POOL_IDLE_TIMEOUT = "t2.conn.pool.idle-timeout";
+	static String KEEP_ALIVE = "t2.conn.keep-alive";
+	static String SOCKET_BUFFER_SIZE = "t2.conn.socket.buffer-size";
+	static String TCP_NO_DELAY = "t2.conn.socket.tcp-no-delay";
+	static String CONNECT_TIMEOUT = "t2.conn.timeout.connect";
+	static String READ_TIMEOUT = "t2.conn.timeout.read";
+	static String RETRY_POLICY = "t2.conn.retry.policy";
+	static String RETRY_LISTENER = "t2.conn.retry.listener";
+	static String COMPRESS_RESPONSES = "t2.conn.compress.responses";
+	static String COMPRESS_UPLOADS = "t2.conn.compress.uploads";
+	static String CACHE_SIZE = "t2.conn.cache.size";
+	static String DOWNLOAD_CHUNK_SIZE = "t2.conn.download.chunk-size";
+	static String DOWNLOAD_PARALLELISM = "t2.conn.download.parallelism";
+	static String DOWNLOAD_MAX_RESUMES = "t2.conn.download.max-resumes";
+	static String CREATE_PARALLELISM = "t2.conn.create.parallelism";
+	static String START_PARALLELISM = "t2.conn.start.parallelism";
 }
@@ -92,6 +92,54 @@ public interface ConnectionParams extends ConnectionPNames {
 	 */
 	public ConnectionParams setBooleanParameter(String id, boolean value);
 
+	/**
+	 * Get the value of an integer parameter stored in this parameter set. If
+	 * the parameter is not present in this set then the default value is
+	 * returned instead.
+	 * 
+	 * @param id
+	 *            the parameter to get.
+	 * @param defaultValue
+	 *            the default value of the parameter if it not set.
+	 * @return the value of the parameter.
+	 */
+	public int getIntParameter(String id, int defaultValue);
+
+	/**
+	 * Set an integer parameter value in this parameter set.
+	 * 
+	 * @param id
+	 *            the parameter to set.
+	 * @param value
+	 *            the value of the parameter.
+	 * @return the modified parameter set.
+	 */
+	public ConnectionParams setIntParameter(String id, int value);
+
+	/**
+	 * Get the value of a long parameter stored in this parameter set. If the
+	 * parameter is not present in this set then the default value is returned
+	 * instead.
+	 * 
+	 * @param id
+	 *            the parameter to get.
+	 * @param defaultValue
+	 *            the default value of the parameter if it not set.
+	 * @return the value of the parameter.
+	 */
+	public long getLongParameter(String id, long defaultValue);
+
+	/**
+	 * Set a long parameter value in this parameter set.
+	 * 
+	 * @param id
+	 *            the parameter to set.
+	 * @param value
+	 *            the value of the parameter.
+	 * @return the modified parameter set.
+	 */
+	public ConnectionParams setLongParameter(String id, long value);
+
 	/**
 	 * Is the named parameter true?
 	 * 
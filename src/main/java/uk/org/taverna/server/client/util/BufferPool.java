@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shared, bounded pool of byte arrays for transient use when copying,
+ * reading and writing data, so that each copy does not allocate a new buffer.
+ * 
+ * All buffers handed out are {@link #BUFFER_SIZE} bytes long. A buffer must
+ * not be used after it has been released back to the pool. Buffers that are
+ * not released are simply garbage collected.
+ * 
+ * All methods in this class are thread-safe.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class BufferPool {
+
+	/**
+	 * The size, in bytes, of every buffer in the pool.
+	 */
+	public final static int BUFFER_SIZE = 32 * 1024;
+
+	// The most idle buffers to keep hold of.
+	private final static int MAX_POOL_SIZE = 64;
+
+	private final static Queue<byte[]> idle = new ConcurrentLinkedQueue<byte[]>();
+	private final static AtomicInteger size = new AtomicInteger(0);
+
+	private final static AtomicLong hits = new AtomicLong(0);
+	private final static AtomicLong misses = new AtomicLong(0);
+
+	private BufferPool() {
+	}
+
+	/**
+	 * Get a buffer from the pool, or a new one if the pool is empty.
+	 * 
+	 * @return a buffer of {@link #BUFFER_SIZE} bytes.
+	 */
+	public static byte[] acquire() {
+		byte[] buffer = idle.poll();
+		if (buffer != null) {
+			size.decrementAndGet();
+			hits.incrementAndGet();
+
+			return buffer;
+		}
+
+		misses.incrementAndGet();
+		return new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Give a buffer back to the pool. Buffers that did not come from the pool
+	 * are ignored.
+	 * 
+	 * @param buffer
+	 *            the buffer to release.
+	 */
+	public static void release(byte[] buffer) {
+		if (buffer == null || buffer.length != BUFFER_SIZE) {
+			return;
+		}
+
+		// Only keep hold of it if the pool is not already full.
+		if (size.incrementAndGet() <= MAX_POOL_SIZE) {
+			idle.offer(buffer);
+		} else {
+			size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Get the number of times a buffer has been reused from the pool.
+	 * 
+	 * @return the number of pool hits.
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of times a new buffer had to be allocated because the
+	 * pool was empty.
+	 * 
+	 * @return the number of pool misses.
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of idle buffers currently held by the pool.
+	 * 
+	 * @return the number of idle buffers.
+	 */
+	public static int getIdleCount() {
+		return Math.max(size.get(), 0);
+	}
+}
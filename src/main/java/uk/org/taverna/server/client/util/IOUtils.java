@@ -32,11 +32,23 @@
 
 package uk.org.taverna.server.client.util;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.input.BoundedInputStream;
 
 /**
  * A small set of io, file and stream related methods to fill gaps left by
@@ -47,6 +59,14 @@ import java.io.OutputStream;
  */
 public final class IOUtils {
 
+	/**
+	 * The largest amount of data that can be mapped into memory in one
+	 * buffer, just under 2GB.
+	 * 
+	 * @since 0.9.0
+	 */
+	public static final long MAX_MAP_SIZE = Integer.MAX_VALUE;
+
 	private IOUtils() {
 	}
 
@@ -65,12 +85,336 @@ public final class IOUtils {
 	 */
 	public static void writeStreamToFile(InputStream stream, File file)
 			throws IOException {
+		writeStreamToFile(stream, file, false);
+	}
+
+	/**
+	 * Write data from an {@link InputStream} directly into a file, optionally
+	 * appending it to any data already in the file.
+	 * 
+	 * <b>This method does not close the {@link InputStream} when it is finished
+	 * with it.</b>
+	 * 
+	 * @param stream
+	 *            the {@link InputStream} to copy from.
+	 * @param file
+	 *            the {@link File} to write to.
+	 * @param append
+	 *            if <code>true</code> the data is added to the end of the
+	 *            file rather than replacing its contents.
+	 * @throws IOException
+	 *             on any file or stream errors.
+	 */
+	public static void writeStreamToFile(InputStream stream, File file,
+			boolean append) throws IOException {
 		OutputStream os = null;
 		try {
-			os = new FileOutputStream(file);
-			org.apache.commons.io.IOUtils.copyLarge(stream, os);
+			os = new FileOutputStream(file, append);
+			copy(stream, os);
 		} finally {
 			org.apache.commons.io.IOUtils.closeQuietly(os);
 		}
 	}
+
+	/**
+	 * Copy all the data from an {@link InputStream} to an
+	 * {@link OutputStream} using a buffer from the {@link BufferPool}. Each
+	 * buffer is filled before it is written so that data is passed on in as
+	 * few, large, writes as possible.
+	 * 
+	 * <b>This method does not close either stream when it is finished with
+	 * it.</b>
+	 * 
+	 * @param input
+	 *            the {@link InputStream} to copy from.
+	 * @param output
+	 *            the {@link OutputStream} to copy to.
+	 * @return the number of bytes copied.
+	 * @throws IOException
+	 *             on any stream errors.
+	 * @since 0.9.0
+	 */
+	public static long copy(InputStream input, OutputStream output)
+			throws IOException {
+		byte[] buffer = BufferPool.acquire();
+
+		try {
+			long count = 0;
+			int n;
+			while ((n = fill(input, buffer)) > 0) {
+				output.write(buffer, 0, n);
+				count += n;
+			}
+
+			return count;
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Copy all the data from an {@link InputStream} to a
+	 * {@link WritableByteChannel} using a buffer from the {@link BufferPool}.
+	 * The buffer is handed to the channel as it is, without being copied,
+	 * and is filled before each write so that data is passed on in as few,
+	 * large, writes as possible.
+	 * 
+	 * <b>This method does not close the stream or the channel when it is
+	 * finished with them.</b>
+	 * 
+	 * @param input
+	 *            the {@link InputStream} to copy from.
+	 * @param output
+	 *            the {@link WritableByteChannel} to copy to.
+	 * @return the number of bytes copied.
+	 * @throws IOException
+	 *             on any stream or channel errors.
+	 * @since 0.9.0
+	 */
+	public static long copy(InputStream input, WritableByteChannel output)
+			throws IOException {
+		byte[] buffer = BufferPool.acquire();
+		ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+
+		try {
+			long count = 0;
+			int n;
+			while ((n = fill(input, buffer)) > 0) {
+				wrapped.clear().limit(n);
+				while (wrapped.hasRemaining()) {
+					output.write(wrapped);
+				}
+				count += n;
+			}
+
+			return count;
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	/*
+	 * Read from a stream until the buffer is full or the stream ends. Returns
+	 * the number of bytes read, which is zero at the end of the stream.
+	 */
+	static int fill(InputStream input, byte[] buffer)
+			throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			int n = input.read(buffer, offset, buffer.length - offset);
+			if (n == -1) {
+				break;
+			}
+			offset += n;
+		}
+
+		return offset;
+	}
+
+	/**
+	 * Read all the data from an {@link InputStream} into an array. If the
+	 * length of the data is known it is read straight into an array of that
+	 * size, otherwise it is collected in pooled buffers first so that no
+	 * array is repeatedly grown and copied.
+	 * 
+	 * <b>This method does not close the {@link InputStream} when it is finished
+	 * with it.</b>
+	 * 
+	 * @param stream
+	 *            the {@link InputStream} to read from.
+	 * @param length
+	 *            the length of the data, or a negative number if it is not
+	 *            known.
+	 * @return the data read.
+	 * @throws IOException
+	 *             on any stream errors or if the stream ends too soon.
+	 * @since 0.9.0
+	 */
+	public static byte[] toByteArray(InputStream stream, long length)
+			throws IOException {
+		if (length >= 0 && length <= Integer.MAX_VALUE) {
+			byte[] data = new byte[(int) length];
+
+			int offset = 0;
+			while (offset < data.length) {
+				int n = stream.read(data, offset, data.length - offset);
+				if (n == -1) {
+					throw new EOFException("Expected " + length
+							+ " bytes but got " + offset);
+				}
+				offset += n;
+			}
+
+			return data;
+		}
+
+		PooledByteArrayOutputStream os = new PooledByteArrayOutputStream();
+		try {
+			copy(stream, os);
+
+			return os.toByteArray();
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Read exactly <code>size</code> bytes from an {@link InputStream} into a
+	 * new direct buffer, so that the data is held outside of the Java heap.
+	 * 
+	 * <b>This method does not close the {@link InputStream} when it is finished
+	 * with it.</b>
+	 * 
+	 * @param stream
+	 *            the {@link InputStream} to read from.
+	 * @param size
+	 *            the number of bytes to read.
+	 * @return a read-only direct buffer holding the data.
+	 * @throws IOException
+	 *             on any stream errors or if the stream ends too soon.
+	 * @since 0.9.0
+	 */
+	public static ByteBuffer readStreamToDirectBuffer(InputStream stream,
+			int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+		ReadableByteChannel channel = Channels.newChannel(stream);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) == -1) {
+				throw new EOFException("Expected " + size + " bytes but got "
+						+ buffer.position());
+			}
+		}
+		buffer.flip();
+
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Map a file into memory, read-only. The data is then paged in by the
+	 * operating system as it is used rather than being held on the Java heap.
+	 * Files larger than {@link #MAX_MAP_SIZE} cannot be mapped.
+	 * 
+	 * @param file
+	 *            the {@link File} to map.
+	 * @param delete
+	 *            if <code>true</code> the file is deleted once it has been
+	 *            mapped, or when the virtual machine exits on platforms that
+	 *            do not allow mapped files to be deleted.
+	 * @return a read-only buffer over the contents of the file.
+	 * @throws IOException
+	 *             on any file errors, or if the file is too large to map.
+	 * @since 0.9.0
+	 */
+	public static MappedByteBuffer mapFile(File file, boolean delete)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			checkMapSize(channel.size());
+
+			// The mapping remains valid after the channel is closed.
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+
+			if (delete && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Spool the data from an {@link InputStream} to a temporary file and map
+	 * it into memory, read-only. The temporary file is deleted once it has
+	 * been mapped. If the stream holds more than {@link #MAX_MAP_SIZE} bytes
+	 * spooling stops as soon as the limit is passed and an exception is
+	 * thrown.
+	 * 
+	 * <b>This method does not close the {@link InputStream} when it is finished
+	 * with it.</b>
+	 * 
+	 * @param stream
+	 *            the {@link InputStream} to spool.
+	 * @return a read-only buffer over the data.
+	 * @throws IOException
+	 *             on any file or stream errors, or if there is too much data
+	 *             to map.
+	 * @since 0.9.0
+	 */
+	public static MappedByteBuffer mapStream(InputStream stream)
+			throws IOException {
+		File spool = createSpoolFile();
+
+		try {
+			// Read one byte past the limit to find out if it has been passed.
+			writeStreamToFile(new BoundedInputStream(stream, MAX_MAP_SIZE + 1),
+					spool);
+			checkMapSize(spool.length());
+		} catch (IOException e) {
+			spool.delete();
+			throw e;
+		}
+
+		return mapFile(spool, true);
+	}
+
+	/**
+	 * Check that an amount of data can be mapped into memory in one buffer.
+	 * 
+	 * @param size
+	 *            the number of bytes to be mapped.
+	 * @throws IOException
+	 *             if there is more data than {@link #MAX_MAP_SIZE}.
+	 * @since 0.9.0
+	 */
+	public static void checkMapSize(long size) throws IOException {
+		if (size > MAX_MAP_SIZE) {
+			throw new IOException("Cannot map " + size
+					+ " bytes into memory; the limit is " + MAX_MAP_SIZE
+					+ " bytes.");
+		}
+	}
+
+	/**
+	 * Create a temporary file to spool downloaded data to.
+	 * 
+	 * @return a new, empty, temporary file.
+	 * @throws IOException
+	 *             if the file cannot be created.
+	 * @since 0.9.0
+	 */
+	public static File createSpoolFile() throws IOException {
+		return File.createTempFile("t2-server-", ".spool");
+	}
+
+	/**
+	 * Open a spool file for reading. The file is deleted when the returned
+	 * stream is closed.
+	 * 
+	 * @param file
+	 *            the spool file to open.
+	 * @return a stream over the contents of the spool file.
+	 * @throws FileNotFoundException
+	 *             if the file cannot be opened.
+	 * @since 0.9.0
+	 * @see #createSpoolFile()
+	 */
+	public static InputStream openSpoolFile(final File file)
+			throws FileNotFoundException {
+		return new FileInputStream(file) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if (!file.delete()) {
+						file.deleteOnExit();
+					}
+				}
+			}
+		};
+	}
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.util;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A process-wide budget for the number of bytes of response data that may be
+ * held in memory at once while it is being read from a server. Readers
+ * reserve space before buffering a response and release it when they are
+ * done; they can either wait for space to become free or, if it is not free
+ * straight away, do something else such as spill the data to disk.
+ * 
+ * A single reservation that is larger than the whole budget is granted by
+ * {@link #acquire(long)} when nothing else is reserved, so that it cannot
+ * wait forever. {@link #tryAcquire(long)} always refuses one, so that callers
+ * with somewhere else to put the data, such as a file, use it.
+ * 
+ * The default budget is a quarter of the maximum heap size. All methods in
+ * this class are thread-safe.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class MemoryBudget {
+
+	private final static Object lock = new Object();
+
+	private static long limit = Runtime.getRuntime().maxMemory() / 4;
+	private static long used = 0;
+	private static long peak = 0;
+	private static long waits = 0;
+	private static long refusals = 0;
+
+	private MemoryBudget() {
+	}
+
+	/**
+	 * Reserve space in the budget, waiting until it is available.
+	 * 
+	 * @param bytes
+	 *            the number of bytes to reserve.
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting.
+	 */
+	public static void acquire(long bytes) throws InterruptedIOException {
+		synchronized (lock) {
+			if (!fits(bytes)) {
+				waits++;
+
+				do {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException(
+								"Interrupted waiting for " + bytes
+										+ " bytes of memory budget");
+					}
+				} while (!fits(bytes));
+			}
+
+			reserve(bytes);
+		}
+	}
+
+	/**
+	 * Reserve space in the budget only if it is available straight away.
+	 * Space larger than the whole budget is never available.
+	 * 
+	 * @param bytes
+	 *            the number of bytes to reserve.
+	 * @return true if the space was reserved, false otherwise.
+	 */
+	public static boolean tryAcquire(long bytes) {
+		synchronized (lock) {
+			if (bytes > limit || !fits(bytes)) {
+				refusals++;
+				return false;
+			}
+
+			reserve(bytes);
+			return true;
+		}
+	}
+
+	/**
+	 * Give back space reserved with {@link #acquire(long)} or
+	 * {@link #tryAcquire(long)}.
+	 * 
+	 * @param bytes
+	 *            the number of bytes to release.
+	 */
+	public static void release(long bytes) {
+		if (bytes <= 0) {
+			return;
+		}
+
+		synchronized (lock) {
+			used = Math.max(used - bytes, 0);
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Set the size of the budget. Lowering it does not affect space that has
+	 * already been reserved.
+	 * 
+	 * @param bytes
+	 *            the new size of the budget, in bytes.
+	 */
+	public static void setLimit(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Memory budget limit ("
+					+ bytes + ") must not be negative.");
+		}
+
+		synchronized (lock) {
+			limit = bytes;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Get the size of the budget.
+	 * 
+	 * @return the size of the budget, in bytes.
+	 */
+	public static long getLimit() {
+		synchronized (lock) {
+			return limit;
+		}
+	}
+
+	/**
+	 * Get the number of bytes currently reserved.
+	 * 
+	 * @return the number of bytes in use.
+	 */
+	public static long getUsed() {
+		synchronized (lock) {
+			return used;
+		}
+	}
+
+	/**
+	 * Get the largest number of bytes that have been reserved at once.
+	 * 
+	 * @return the peak number of bytes in use.
+	 */
+	public static long getPeak() {
+		synchronized (lock) {
+			return peak;
+		}
+	}
+
+	/**
+	 * Get the number of times a reservation has had to wait for space.
+	 * 
+	 * @return the number of waits.
+	 */
+	public static long getWaits() {
+		synchronized (lock) {
+			return waits;
+		}
+	}
+
+	/**
+	 * Get the number of times {@link #tryAcquire(long)} has been refused.
+	 * 
+	 * @return the number of refusals.
+	 */
+	public static long getRefusals() {
+		synchronized (lock) {
+			return refusals;
+		}
+	}
+
+	// Must be called with the lock held.
+	private static boolean fits(long bytes) {
+		return used == 0 || bytes <= (limit - used);
+	}
+
+	// Must be called with the lock held.
+	private static void reserve(long bytes) {
+		used += Math.max(bytes, 0);
+		peak = Math.max(peak, used);
+	}
+}
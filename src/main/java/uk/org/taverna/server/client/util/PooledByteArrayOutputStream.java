@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An output stream that collects data in buffers taken from the
+ * {@link BufferPool}, rather than in an array that is repeatedly grown and
+ * copied. The buffers are returned to the pool when the stream is closed, so
+ * it must always be closed once the data has been retrieved.
+ * 
+ * This class is not thread-safe.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class PooledByteArrayOutputStream extends OutputStream {
+
+	private final List<byte[]> buffers;
+	private byte[] current;
+	private int position;
+	private long count;
+
+	public PooledByteArrayOutputStream() {
+		buffers = new ArrayList<byte[]>();
+		current = null;
+		position = BufferPool.BUFFER_SIZE;
+		count = 0;
+	}
+
+	@Override
+	public void write(int b) {
+		ensureSpace();
+		current[position++] = (byte) b;
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		while (len > 0) {
+			ensureSpace();
+
+			int n = Math.min(len, current.length - position);
+			System.arraycopy(b, off, current, position, n);
+			position += n;
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Get the number of bytes written to this stream.
+	 * 
+	 * @return the number of bytes written.
+	 */
+	public long size() {
+		return count;
+	}
+
+	/**
+	 * Get a copy of the data written to this stream.
+	 * 
+	 * @return the data written to this stream.
+	 */
+	public byte[] toByteArray() {
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too much data for an array: "
+					+ count + " bytes.");
+		}
+
+		byte[] result = new byte[(int) count];
+		int offset = 0;
+		for (byte[] buffer : buffers) {
+			int n = (int) Math.min(buffer.length, count - offset);
+			System.arraycopy(buffer, 0, result, offset, n);
+			offset += n;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Write the data written to this stream to another stream.
+	 * 
+	 * @param out
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if the data cannot be written.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		long remaining = count;
+		for (byte[] buffer : buffers) {
+			int n = (int) Math.min(buffer.length, remaining);
+			out.write(buffer, 0, n);
+			remaining -= n;
+		}
+	}
+
+	/**
+	 * Return this stream's buffers to the pool. The data written to this
+	 * stream is no longer available once it is closed.
+	 */
+	@Override
+	public void close() {
+		for (byte[] buffer : buffers) {
+			BufferPool.release(buffer);
+		}
+
+		buffers.clear();
+		current = null;
+		position = BufferPool.BUFFER_SIZE;
+		count = 0;
+	}
+
+	private void ensureSpace() {
+		if (position == BufferPool.BUFFER_SIZE) {
+			current = BufferPool.acquire();
+			buffers.add(current);
+			position = 0;
+		}
+	}
+}
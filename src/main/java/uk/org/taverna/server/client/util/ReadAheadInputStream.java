@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+/**
+ * An {@link InputStream} that reads ahead of its consumer on a background
+ * thread, so that the data can be processed while more of it is being
+ * downloaded. Data is read in blocks of {@link BufferPool#BUFFER_SIZE} bytes
+ * into a bounded queue; the lookahead sets how many blocks may be waiting to
+ * be consumed before the background thread stops and waits for the consumer
+ * to catch up.
+ * 
+ * Errors from the underlying stream are thrown to the consumer once it has
+ * read everything that came before them. The underlying stream is closed by
+ * the background thread when it reaches the end of the data, fails, or this
+ * stream is closed.
+ * 
+ * Closing this stream before the end of the data abandons the rest of it. If
+ * the underlying stream is a {@link ConnectionReleaseTrigger}, as the streams
+ * returned by {@link uk.org.taverna.server.client.connection.HttpConnection}
+ * are, its connection is aborted so that the background thread is not left
+ * blocked in a read, and the rest of the data is not downloaded just to be
+ * thrown away.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class ReadAheadInputStream extends InputStream {
+
+	/**
+	 * The default number of blocks to read ahead.
+	 */
+	public static final int DEFAULT_LOOKAHEAD = 4;
+
+	private static final ExecutorService EXECUTOR = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable,
+							"Taverna Server read-ahead");
+					thread.setDaemon(true);
+
+					return thread;
+				}
+			});
+
+	// Marks the end of the data.
+	private static final Block END = new Block(null, 0, null);
+
+	private final InputStream source;
+	private final BlockingQueue<Block> queue;
+	private final Future<?> reader;
+
+	// Claimed by the reader when it starts, or by close() if it never does,
+	// so that the source is always closed exactly once.
+	private final AtomicBoolean started;
+
+	private Block current;
+	private int offset;
+	private volatile boolean closed;
+
+	/**
+	 * Read ahead of the consumer of a stream by
+	 * {@link #DEFAULT_LOOKAHEAD} blocks.
+	 * 
+	 * @param stream
+	 *            the stream to read from.
+	 */
+	public ReadAheadInputStream(InputStream stream) {
+		this(stream, DEFAULT_LOOKAHEAD);
+	}
+
+	/**
+	 * Read ahead of the consumer of a stream.
+	 * 
+	 * @param stream
+	 *            the stream to read from.
+	 * @param lookahead
+	 *            the number of blocks that may be read ahead of the consumer.
+	 */
+	public ReadAheadInputStream(final InputStream stream, int lookahead) {
+		if (lookahead < 1) {
+			throw new IllegalArgumentException("Lookahead (" + lookahead
+					+ ") must be at least 1.");
+		}
+
+		source = stream;
+		queue = new ArrayBlockingQueue<Block>(lookahead);
+		current = null;
+		offset = 0;
+		closed = false;
+		started = new AtomicBoolean(false);
+
+		reader = EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (started.compareAndSet(false, true)) {
+					readAhead(stream);
+				}
+			}
+		});
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!next()) {
+			return -1;
+		}
+
+		return current.data[offset++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		if (!next()) {
+			return -1;
+		}
+
+		int n = Math.min(len, current.length - offset);
+		System.arraycopy(current.data, offset, b, off, n);
+		offset += n;
+
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+
+		return (current == null || current == END) ? 0 : current.length
+				- offset;
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		reader.cancel(true);
+
+		// Interrupting the reader does not unblock a socket read, and closing
+		// an HTTP response body reads the rest of it, so drop the connection.
+		if (source instanceof ConnectionReleaseTrigger) {
+			try {
+				((ConnectionReleaseTrigger) source).abortConnection();
+			} catch (IOException e) {
+				// The reader will see the failure and finish.
+			}
+		}
+
+		// The reader closes the source, unless it was cancelled before it
+		// could start.
+		if (started.compareAndSet(false, true)) {
+			org.apache.commons.io.IOUtils.closeQuietly(source);
+		}
+
+		if (current != null) {
+			BufferPool.release(current.data);
+			current = null;
+		}
+
+		// Free up the reader if it is waiting for room in the queue.
+		drain();
+	}
+
+	/*
+	 * Make sure there is data in the current block, waiting for the next one
+	 * if needed. Returns false at the end of the data.
+	 */
+	private boolean next() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+
+		if (current == END) {
+			return false;
+		}
+
+		while (current == null || offset == current.length) {
+			if (current != null) {
+				BufferPool.release(current.data);
+			}
+
+			try {
+				current = queue.take();
+			} catch (InterruptedException e) {
+				current = null;
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted waiting for data");
+			}
+			offset = 0;
+
+			if (current == END) {
+				return false;
+			}
+
+			if (current.error != null) {
+				IOException error = current.error;
+				current = END;
+				throw error;
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Runs on the background thread, filling blocks until the end of the data
+	 * or an error, or until this stream is closed.
+	 */
+	private void readAhead(InputStream stream) {
+		try {
+			while (!closed) {
+				byte[] buffer = BufferPool.acquire();
+				int n;
+				try {
+					n = IOUtils.fill(stream, buffer);
+				} catch (IOException e) {
+					BufferPool.release(buffer);
+					queue.put(new Block(null, 0, e));
+					return;
+				}
+
+				if (n == 0) {
+					BufferPool.release(buffer);
+					queue.put(END);
+					return;
+				}
+
+				queue.put(new Block(buffer, n, null));
+			}
+		} catch (InterruptedException e) {
+			// Closed while waiting for room in the queue.
+		} finally {
+			org.apache.commons.io.IOUtils.closeQuietly(stream);
+
+			if (closed) {
+				drain();
+			}
+		}
+	}
+
+	private void drain() {
+		Block block;
+		while ((block = queue.poll()) != null) {
+			BufferPool.release(block.data);
+		}
+	}
+
+	private static final class Block {
+		final byte[] data;
+		final int length;
+		final IOException error;
+
+		Block(byte[] data, int length, IOException error) {
+			this.data = data;
+			this.length = length;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.xml;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single entry from the Atom event feed of a Taverna Server.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class FeedEntry {
+
+	private final String id;
+	private final String title;
+	private final String content;
+	private final List<URI> links;
+
+	FeedEntry(String id, String title, String content, List<URI> links) {
+		this.id = id;
+		this.title = (title == null) ? "" : title;
+		this.content = (content == null) ? "" : content;
+		this.links = Collections.unmodifiableList(links);
+	}
+
+	/**
+	 * Get the unique identifier of this entry.
+	 * 
+	 * @return the identifier of this entry.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Get the title of this entry.
+	 * 
+	 * @return the title of this entry, or an empty string if it has none.
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Get the text content of this entry.
+	 * 
+	 * @return the content of this entry, or an empty string if it has none.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * Get the links held in this entry, which usually include the run that
+	 * the entry is about.
+	 * 
+	 * @return the links held in this entry.
+	 */
+	public List<URI> getLinks() {
+		return links;
+	}
+
+	@Override
+	public String toString() {
+		return id + ": " + title;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.xml;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A streaming (StAX) parser for the Atom event feed of a Taverna Server. Only
+ * the parts of each entry that are needed to work out which run it is about,
+ * and what has happened to it, are kept. Links that are not valid URIs are
+ * skipped rather than failing the whole feed.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class FeedStreamReader {
+
+	private final static String ATOM_NS = "http://www.w3.org/2005/Atom";
+
+	private final static XMLInputFactory factory = XMLInputFactory
+			.newInstance();
+
+	static {
+		// Feeds come from the server, so never load a DTD or external entity.
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				false);
+	}
+
+	private FeedStreamReader() {
+	}
+
+	/**
+	 * Parse an Atom feed document.
+	 * 
+	 * <b>This method does not close the {@link InputStream} when it is finished
+	 * with it.</b>
+	 * 
+	 * @param stream
+	 *            the stream to read the document from.
+	 * @return the entries in the feed, in document order, which is usually
+	 *         newest first.
+	 * @throws XMLStreamException
+	 *             if the document is not well formed.
+	 */
+	public static List<FeedEntry> read(InputStream stream)
+			throws XMLStreamException {
+		XMLStreamReader reader = factory.createXMLStreamReader(stream);
+		List<FeedEntry> entries = new ArrayList<FeedEntry>();
+
+		try {
+			boolean inEntry = false;
+			String id = null;
+			String title = null;
+			String content = null;
+			List<URI> links = null;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (!ATOM_NS.equals(reader.getNamespaceURI())) {
+						continue;
+					}
+
+					String element = reader.getLocalName();
+					if (element.equals("entry")) {
+						inEntry = true;
+						id = title = content = null;
+						links = new ArrayList<URI>();
+					} else if (!inEntry) {
+						continue;
+					} else if (element.equals("id")) {
+						id = reader.getElementText().trim();
+					} else if (element.equals("title")) {
+						title = readText(reader);
+					} else if (element.equals("content")
+							|| element.equals("summary")) {
+						if (content == null) {
+							content = readText(reader);
+						}
+					} else if (element.equals("link")) {
+						String href = reader.getAttributeValue(null, "href");
+						if (href != null) {
+							try {
+								links.add(new URI(href.trim()));
+							} catch (URISyntaxException e) {
+								// Not a link we could follow anyway.
+							}
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (inEntry && ATOM_NS.equals(reader.getNamespaceURI())
+							&& reader.getLocalName().equals("entry")) {
+						inEntry = false;
+						if (id != null) {
+							entries.add(new FeedEntry(id, title, content, links));
+						}
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		return entries;
+	}
+
+	/*
+	 * Collect all the text within an element, including that in any child
+	 * elements, such as the markup of XHTML titles and content.
+	 */
+	private static String readText(XMLStreamReader reader)
+			throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		int depth = 1;
+
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.CHARACTERS
+					|| event == XMLStreamConstants.CDATA) {
+				text.append(reader.getText());
+			}
+		}
+
+		return text.toString().trim();
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.xml;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * The shared JAXB marshalling engine used by {@link XMLReader} and
+ * {@link XMLWriter}.
+ * 
+ * Building a {@link JAXBContext} is expensive so only one context is built per
+ * JVM for reading and one for writing. {@link Unmarshaller} and
+ * {@link Marshaller} instances are not thread-safe so they are kept in bounded
+ * pools and handed out to one thread at a time.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class JAXBEngine {
+
+	private final static String READ_CTX_PATH = "uk.org.taverna.server.client.xml.rest:uk.org.taverna.server.client.xml.port";
+	private final static String WRITE_CTX_PATH = "uk.org.taverna.server.client.xml.rest";
+
+	// The most idle (un)marshallers to keep hold of in each pool.
+	private final static int MAX_POOL_SIZE = 32;
+
+	private final static Pool<Unmarshaller> unmarshallers = new Pool<Unmarshaller>() {
+		@Override
+		Unmarshaller create() throws JAXBException {
+			return ReadContextHolder.getContext().createUnmarshaller();
+		}
+	};
+
+	private final static Pool<Marshaller> marshallers = new Pool<Marshaller>() {
+		@Override
+		Marshaller create() throws JAXBException {
+			return WriteContextHolder.getContext().createMarshaller();
+		}
+	};
+
+	private JAXBEngine() {
+	}
+
+	/**
+	 * Unmarshal an XML document from the supplied stream using a pooled
+	 * {@link Unmarshaller}.
+	 * 
+	 * <b>This method does not close the {@link InputStream} when it is finished
+	 * with it.</b>
+	 * 
+	 * @param stream
+	 *            the stream to read the XML document from.
+	 * @return the unmarshalled object tree.
+	 * @throws JAXBException
+	 *             if the document could not be unmarshalled.
+	 */
+	public static Object unmarshal(InputStream stream) throws JAXBException {
+		Unmarshaller unmarshaller = unmarshallers.borrow();
+		try {
+			return unmarshaller.unmarshal(stream);
+		} finally {
+			unmarshallers.release(unmarshaller);
+		}
+	}
+
+	/**
+	 * Marshal an object tree to the supplied stream using a pooled
+	 * {@link Marshaller}.
+	 * 
+	 * <b>This method does not close the {@link OutputStream} when it is
+	 * finished with it.</b>
+	 * 
+	 * @param element
+	 *            the object tree to marshal.
+	 * @param stream
+	 *            the stream to write the XML document to.
+	 * @throws JAXBException
+	 *             if the object tree could not be marshalled.
+	 */
+	public static void marshal(Object element, OutputStream stream)
+			throws JAXBException {
+		Marshaller marshaller = marshallers.borrow();
+		try {
+			marshaller.marshal(element, stream);
+		} finally {
+			marshallers.release(marshaller);
+		}
+	}
+
+	/**
+	 * Build the JAXB contexts and prime each pool with one instance now,
+	 * rather than on first use. Calling this more than once is harmless.
+	 * 
+	 * @throws JAXBException
+	 *             if the contexts could not be built.
+	 */
+	public static void warmUp() throws JAXBException {
+		unmarshallers.release(unmarshallers.borrow());
+		marshallers.release(marshallers.borrow());
+	}
+
+	/**
+	 * Get the number of times a pooled {@link Unmarshaller} was reused.
+	 * 
+	 * @return the number of unmarshaller pool hits.
+	 */
+	public static long getUnmarshallerHits() {
+		return unmarshallers.hits.get();
+	}
+
+	/**
+	 * Get the number of times a new {@link Unmarshaller} had to be created
+	 * because the pool was empty.
+	 * 
+	 * @return the number of unmarshaller pool misses.
+	 */
+	public static long getUnmarshallerMisses() {
+		return unmarshallers.misses.get();
+	}
+
+	/**
+	 * Get the number of times a pooled {@link Marshaller} was reused.
+	 * 
+	 * @return the number of marshaller pool hits.
+	 */
+	public static long getMarshallerHits() {
+		return marshallers.hits.get();
+	}
+
+	/**
+	 * Get the number of times a new {@link Marshaller} had to be created
+	 * because the pool was empty.
+	 * 
+	 * @return the number of marshaller pool misses.
+	 */
+	public static long getMarshallerMisses() {
+		return marshallers.misses.get();
+	}
+
+	/*
+	 * The contexts are held in their own classes so that they are built
+	 * lazily, exactly once, by the class loader.
+	 */
+	private static final class ReadContextHolder {
+		private final static Context context = new Context(READ_CTX_PATH);
+
+		static JAXBContext getContext() throws JAXBException {
+			return context.get();
+		}
+	}
+
+	private static final class WriteContextHolder {
+		private final static Context context = new Context(WRITE_CTX_PATH);
+
+		static JAXBContext getContext() throws JAXBException {
+			return context.get();
+		}
+	}
+
+	/*
+	 * A context, or the reason it could not be built, which is reported each
+	 * time it is asked for.
+	 */
+	private static final class Context {
+		private final String path;
+		private final JAXBContext context;
+		private final JAXBException error;
+
+		Context(String path) {
+			JAXBContext context = null;
+			JAXBException error = null;
+			try {
+				context = JAXBContext.newInstance(path);
+			} catch (JAXBException e) {
+				error = e;
+			}
+
+			this.path = path;
+			this.context = context;
+			this.error = error;
+		}
+
+		JAXBContext get() throws JAXBException {
+			if (context == null) {
+				throw new JAXBException("Could not create JAXB context for "
+						+ path, error);
+			}
+
+			return context;
+		}
+	}
+
+	private static abstract class Pool<T> {
+		private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+		private final AtomicInteger size = new AtomicInteger(0);
+
+		final AtomicLong hits = new AtomicLong(0);
+		final AtomicLong misses = new AtomicLong(0);
+
+		abstract T create() throws JAXBException;
+
+		T borrow() throws JAXBException {
+			T t = idle.poll();
+			if (t != null) {
+				size.decrementAndGet();
+				hits.incrementAndGet();
+
+				return t;
+			}
+
+			misses.incrementAndGet();
+			return create();
+		}
+
+		void release(T t) {
+			// Only keep hold of it if the pool is not already full.
+			if (size.incrementAndGet() <= MAX_POOL_SIZE) {
+				idle.offer(t);
+			} else {
+				size.decrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.xml;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import uk.org.taverna.server.client.AbstractPortValue;
+import uk.org.taverna.server.client.OutputPort;
+import uk.org.taverna.server.client.OutputPortVisitor;
+import uk.org.taverna.server.client.PortFactory;
+import uk.org.taverna.server.client.Run;
+
+/**
+ * An {@link OutputPortVisitor} that assembles the visited ports and values
+ * into a map of {@link OutputPort} instances.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+final class OutputPortBuilder implements OutputPortVisitor {
+
+	private final Run run;
+	private final Map<String, OutputPort> ports;
+
+	// The lists currently being built and their references.
+	private final LinkedList<List<AbstractPortValue>> lists;
+	private final LinkedList<URI> references;
+
+	private int depth;
+	private AbstractPortValue value;
+
+	OutputPortBuilder(Run run) {
+		this.run = run;
+		this.ports = new HashMap<String, OutputPort>();
+		this.lists = new LinkedList<List<AbstractPortValue>>();
+		this.references = new LinkedList<URI>();
+	}
+
+	@Override
+	public void startPort(String name, int depth) {
+		this.depth = depth;
+		value = null;
+	}
+
+	@Override
+	public void startList(URI reference) {
+		lists.push(new ArrayList<AbstractPortValue>());
+		references.push(reference);
+	}
+
+	@Override
+	public void value(AbstractPortValue value) {
+		add(value);
+	}
+
+	@Override
+	public void endList() {
+		add(PortFactory.newPortList(run, references.pop(), lists.pop()));
+	}
+
+	@Override
+	public void endPort(String name) {
+		// value should never be null here
+		assert (value != null);
+
+		ports.put(name, PortFactory.newOutputPort(run, name, depth, value));
+	}
+
+	Map<String, OutputPort> getPorts() {
+		return ports;
+	}
+
+	private void add(AbstractPortValue v) {
+		if (lists.isEmpty()) {
+			value = v;
+		} else {
+			lists.peek().add(v);
+		}
+	}
+}
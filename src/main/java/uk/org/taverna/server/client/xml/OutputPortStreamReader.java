@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.xml;
+
+import java.io.InputStream;
+import java.net.URI;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import uk.org.taverna.server.client.AbstractPortValue;
+import uk.org.taverna.server.client.OutputPortVisitor;
+import uk.org.taverna.server.client.PortFactory;
+import uk.org.taverna.server.client.Run;
+
+/**
+ * A streaming (StAX) parser for the output port description document of a
+ * run. Port values are handed to an {@link OutputPortVisitor} as soon as they
+ * are parsed so no intermediate object tree is built.
+ * 
+ * @author Robert Haines
+ * @since 0.9.0
+ */
+public final class OutputPortStreamReader {
+
+	private final static String PORT_NS = "http://ns.taverna.org.uk/2010/port/";
+	private final static String XLINK_NS = "http://www.w3.org/1999/xlink";
+	private final static URI NULL_URI = URI.create("");
+
+	private final static XMLInputFactory factory = XMLInputFactory
+			.newInstance();
+
+	static {
+		// The document comes from the server, so never load a DTD or external
+		// entity.
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				false);
+	}
+
+	private OutputPortStreamReader() {
+	}
+
+	/**
+	 * Parse an output port description document and call the supplied
+	 * visitor for each port and value found.
+	 * 
+	 * <b>This method does not close the {@link InputStream} when it is finished
+	 * with it.</b>
+	 * 
+	 * @param run
+	 *            the run that the ports belong to.
+	 * @param stream
+	 *            the stream to read the document from.
+	 * @param visitor
+	 *            the visitor to call back.
+	 * @throws XMLStreamException
+	 *             if the document is not well formed.
+	 */
+	public static void read(Run run, InputStream stream,
+			OutputPortVisitor visitor) throws XMLStreamException {
+		XMLStreamReader reader = factory.createXMLStreamReader(stream);
+
+		try {
+			String port = null;
+			int lists = 0;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if (!PORT_NS.equals(reader.getNamespaceURI())) {
+						continue;
+					}
+
+					String element = reader.getLocalName();
+					if (element.equals("output")) {
+						port = reader.getAttributeValue(PORT_NS, "name");
+						visitor.startPort(port,
+								getInt(reader.getAttributeValue(PORT_NS, "depth")));
+					} else if (element.equals("value")) {
+						visitor.value(PortFactory.newPortData(run,
+								getHref(reader),
+								reader.getAttributeValue(PORT_NS, "contentType"),
+								getLong(reader.getAttributeValue(PORT_NS,
+										"contentByteLength"))));
+					} else if (element.equals("error")) {
+						visitor.value(PortFactory.newPortError(run,
+								getHref(reader),
+								getLong(reader.getAttributeValue(PORT_NS,
+										"errorByteLength"))));
+					} else if (element.equals("list")) {
+						lists++;
+						visitor.startList(getHref(reader));
+					} else if (element.equals("absent")) {
+						// An absent value is an empty list within a list, or
+						// an empty value at the top level of a port.
+						if (lists > 0) {
+							visitor.startList(NULL_URI);
+							visitor.endList();
+						} else {
+							visitor.value(PortFactory.newPortData(run,
+									NULL_URI, AbstractPortValue.PORT_EMPTY_TYPE,
+									0));
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (!PORT_NS.equals(reader.getNamespaceURI())) {
+						continue;
+					}
+
+					String element = reader.getLocalName();
+					if (element.equals("list")) {
+						lists--;
+						visitor.endList();
+					} else if (element.equals("output")) {
+						visitor.endPort(port);
+						port = null;
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static URI getHref(XMLStreamReader reader) {
+		String href = reader.getAttributeValue(XLINK_NS, "href");
+
+		return (href == null) ? NULL_URI : URI.create(href);
+	}
+
+	private static int getInt(String value) {
+		return (value == null) ? 0 : Integer.parseInt(value.trim());
+	}
+
+	private static long getLong(String value) {
+		return (value == null) ? 0 : Long.parseLong(value.trim());
+	}
+}
@@ -32,6 +32,7 @@
 
 package uk.org.taverna.server.client.xml;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
@@ -39,30 +40,25 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.io.IOUtils;
 
-import uk.org.taverna.server.client.AbstractPortValue;
 import uk.org.taverna.server.client.InputPort;
 import uk.org.taverna.server.client.OutputPort;
+import uk.org.taverna.server.client.OutputPortVisitor;
 import uk.org.taverna.server.client.PortFactory;
 import uk.org.taverna.server.client.Run;
 import uk.org.taverna.server.client.RunPermission;
 import uk.org.taverna.server.client.connection.Connection;
 import uk.org.taverna.server.client.connection.MimeType;
+import uk.org.taverna.server.client.connection.ResponseParser;
+import uk.org.taverna.server.client.connection.UnreadableResponseException;
 import uk.org.taverna.server.client.connection.UserCredentials;
 import uk.org.taverna.server.client.util.URIUtils;
-import uk.org.taverna.server.client.xml.port.AbsentValue;
-import uk.org.taverna.server.client.xml.port.ErrorValue;
 import uk.org.taverna.server.client.xml.port.InputDescription;
-import uk.org.taverna.server.client.xml.port.LeafValue;
-import uk.org.taverna.server.client.xml.port.ListValue;
-import uk.org.taverna.server.client.xml.port.OutputDescription;
-import uk.org.taverna.server.client.xml.port.Value;
 import uk.org.taverna.server.client.xml.rest.Credential;
 import uk.org.taverna.server.client.xml.rest.CredentialDescriptor;
 import uk.org.taverna.server.client.xml.rest.CredentialList;
@@ -84,8 +80,27 @@ import uk.org.taverna.server.client.xml.rest.TrustList;
 
 public final class XMLReader {
 
-	private final static String CTX_PATH = "uk.org.taverna.server.client.xml.rest:uk.org.taverna.server.client.xml.port";
-	private final static URI NULL_URI = URI.create("");
+	/*
+	 * Shared so that a connection that caches responses can recognise that a
+	 * cached document has already been parsed.
+	 */
+	private static final ResponseParser<Object> PARSER = new ResponseParser<Object>() {
+		@Override
+		public Object parse(InputStream content) {
+			return read(content);
+		}
+	};
+
+	private static final ResponseParser<List<FeedEntry>> FEED_PARSER = new ResponseParser<List<FeedEntry>>() {
+		@Override
+		public List<FeedEntry> parse(InputStream content) throws IOException {
+			try {
+				return FeedStreamReader.read(content);
+			} catch (XMLStreamException e) {
+				throw new IOException(e);
+			}
+		}
+	};
 
 	private final Connection connection;
 
@@ -94,18 +109,17 @@ public final class XMLReader {
 	}
 
 	public Object read(URI uri, UserCredentials credentials) {
+		return connection.read(uri, MimeType.XML, credentials, PARSER);
+	}
+
+	private static Object read(InputStream stream) {
 		Object resources = null;
-		InputStream is = connection.readStream(uri, MimeType.XML, credentials);
 
 		try {
-			JAXBContext context = JAXBContext.newInstance(CTX_PATH);
-			Unmarshaller unmarshaller = context.createUnmarshaller();
-			resources = unmarshaller.unmarshal(is);
+			resources = JAXBEngine.unmarshal(stream);
 		} catch (JAXBException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
-		} finally {
-			IOUtils.closeQuietly(is);
 		}
 
 		return resources;
@@ -141,6 +155,24 @@ public final class XMLReader {
 		return new ServerResources(links, version, revision, timestamp);
 	}
 
+	/**
+	 * Read the Atom event feed of a server. Unchanged feeds are not parsed
+	 * again if the connection caches responses.
+	 * 
+	 * @param uri
+	 *            the location of the feed.
+	 * @param credentials
+	 *            the credentials of the user whose feed it is.
+	 * @return the entries in the feed, usually newest first.
+	 * @throws UnreadableResponseException
+	 *             if the feed cannot be fetched or is not a well formed
+	 *             document.
+	 * @since 0.9.0
+	 */
+	public List<FeedEntry> readFeed(URI uri, UserCredentials credentials) {
+		return connection.read(uri, MimeType.ATOM, credentials, FEED_PARSER);
+	}
+
 	public Map<String, URI> readRunList(URI uri, UserCredentials credentials) {
 		RunList runList = (RunList) read(uri, credentials);
 		List<TavernaRun> trs = runList.getRun();
@@ -213,7 +245,17 @@ public final class XMLReader {
 
 	public Map<String, InputPort> readInputPortDescription(Run run, URI uri,
 			UserCredentials credentials) {
-		JAXBElement<?> root = (JAXBElement<?>) read(uri, credentials);
+		return readInputPortDescription(run,
+				(JAXBElement<?>) read(uri, credentials));
+	}
+
+	public Map<String, InputPort> readInputPortDescription(Run run,
+			InputStream stream) {
+		return readInputPortDescription(run, (JAXBElement<?>) read(stream));
+	}
+
+	private Map<String, InputPort> readInputPortDescription(Run run,
+			JAXBElement<?> root) {
 		InputDescription id = (InputDescription) root.getValue();
 
 		Map<String, InputPort> ports = new HashMap<String, InputPort>();
@@ -228,80 +270,39 @@ public final class XMLReader {
 
 	public Map<String, OutputPort> readOutputPortDescription(Run run, URI uri,
 			UserCredentials credentials) {
-		JAXBElement<?> root = (JAXBElement<?>) read(uri, credentials);
-		OutputDescription od = (OutputDescription) root.getValue();
-
-		Map<String, OutputPort> ports = new HashMap<String, OutputPort>();
-		for (uk.org.taverna.server.client.xml.port.OutputPort op : od
-				.getOutput()) {
-
-			LeafValue v = op.getValue();
-			ListValue lv = op.getList();
-			ErrorValue ev = op.getError();
-			AbsentValue av = op.getAbsent();
-
-			AbstractPortValue value = null;
-			if (v != null) {
-				value = PortFactory.newPortData(run, v.getHref(),
-						v.getContentType(), v.getContentByteLength());
-			} else if (lv != null) {
-				value = parseOutputPortValueStructure(run, lv);
-			} else if (ev != null) {
-				value = PortFactory.newPortError(run, ev.getHref(),
-						ev.getErrorByteLength());
-			} else if (av != null) {
-				value = PortFactory.newPortData(run, NULL_URI,
-						AbstractPortValue.PORT_EMPTY_TYPE, 0);
-			}
+		OutputPortBuilder builder = new OutputPortBuilder(run);
+		readOutputPortDescription(run, uri, credentials, builder);
 
-			// value should never still be null here
-			assert (value != null);
+		return builder.getPorts();
+	}
 
-			OutputPort port = PortFactory.newOutputPort(run, op.getName(),
-					op.getDepth(), value);
-			ports.put(port.getName(), port);
-		}
+	public void readOutputPortDescription(Run run, URI uri,
+			UserCredentials credentials, OutputPortVisitor visitor) {
+		InputStream is = connection.readStream(uri, MimeType.XML, credentials);
 
-		return ports;
+		try {
+			readOutputPortDescription(run, is, visitor);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
 	}
 
-	/*
-	 * This method has to parse the OutputPort structure by trying to cast to
-	 * each type that a port can be. Not pretty.
-	 * 
-	 * Even though we know that first time through this method we must have a
-	 * list we try to cast to a value first as this is what we will most often
-	 * have.
-	 */
-	private AbstractPortValue parseOutputPortValueStructure(Run run, Value value) {
-		if (LeafValue.class.isInstance(value)) {
-			LeafValue lv = (LeafValue) value;
-
-			return PortFactory.newPortData(run, lv.getHref(),
-					lv.getContentType(),
-					lv.getContentByteLength());
-		} else if (ListValue.class.isInstance(value)) {
-			ListValue lv = (ListValue) value;
-
-			List<AbstractPortValue> list = new ArrayList<AbstractPortValue>();
-			for (Value v : lv.getValueOrListOrError()) {
-				list.add(parseOutputPortValueStructure(run, v));
-			}
+	public Map<String, OutputPort> readOutputPortDescription(Run run,
+			InputStream stream) {
+		OutputPortBuilder builder = new OutputPortBuilder(run);
+		readOutputPortDescription(run, stream, builder);
 
-			return PortFactory.newPortList(run, lv.getHref(), list);
-		} else if (ErrorValue.class.isInstance(value)) {
-			ErrorValue ev = (ErrorValue) value;
+		return builder.getPorts();
+	}
 
-			return PortFactory.newPortError(run, ev.getHref(),
-					ev.getErrorByteLength());
-		} else if (AbsentValue.class.isInstance(value)) {
-			return PortFactory.newPortList(run, NULL_URI,
-					new ArrayList<AbstractPortValue>());
+	private void readOutputPortDescription(Run run, InputStream stream,
+			OutputPortVisitor visitor) {
+		try {
+			OutputPortStreamReader.read(run, stream, visitor);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(
+					"Could not read the output port description.", e);
 		}
-
-		// We should NOT get here!
-		assert (false);
-		return null;
 	}
 
 	public Map<String, RunPermission> readRunPermissions(URI uri,
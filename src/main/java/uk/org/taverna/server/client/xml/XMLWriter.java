@@ -32,16 +32,14 @@
 
 package uk.org.taverna.server.client.xml;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.net.URI;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 
 import uk.org.taverna.server.client.RunPermission;
+import uk.org.taverna.server.client.util.PooledByteArrayOutputStream;
 import uk.org.taverna.server.client.xml.rest.Credential;
 import uk.org.taverna.server.client.xml.rest.InputDescription;
 import uk.org.taverna.server.client.xml.rest.KeyPairCredential;
@@ -55,18 +53,19 @@ import uk.org.taverna.server.client.xml.rest.TrustDescriptor;
 public final class XMLWriter {
 
 	static byte[] write(JAXBElement<?> element) {
-		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		PooledByteArrayOutputStream os = new PooledByteArrayOutputStream();
 		try {
-			JAXBContext context = JAXBContext
-					.newInstance("uk.org.taverna.server.client.xml.rest");
-			Marshaller marshaller = context.createMarshaller();
-			marshaller.marshal(element, os);
+			JAXBEngine.marshal(element, os);
+
+			return os.toByteArray();
 		} catch (JAXBException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			os.close();
 		}
 
-		return os.toByteArray();
+		return new byte[0];
 	}
 
 	public static byte[] mkdir(String name) {
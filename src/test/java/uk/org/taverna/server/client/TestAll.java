@@ -38,8 +38,18 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({ uk.org.taverna.server.client.util.TestURIUtils.class,
-	TestServer.class, TestRun.class, TestRunPermissions.class,
-	TestSecureWorkflows.class, TestMisc.class })
+	uk.org.taverna.server.client.util.TestBufferPool.class,
+	uk.org.taverna.server.client.util.TestMemoryBudget.class,
+	uk.org.taverna.server.client.util.TestReadAheadInputStream.class,
+	uk.org.taverna.server.client.xml.TestOutputPortStreamReader.class,
+	uk.org.taverna.server.client.xml.TestFeedStreamReader.class,
+	uk.org.taverna.server.client.connection.TestExponentialBackoffRetryPolicy.class,
+	uk.org.taverna.server.client.connection.TestResponseBuffer.class,
+	uk.org.taverna.server.client.connection.TestConnectionFactory.class,
+	TestResumableInputStream.class, TestRunEventFeed.class,
+	TestRunMonitor.class, TestWorkflowStore.class,
+	TestServer.class, TestRun.class, TestRunStart.class,
+	TestRunPermissions.class, TestSecureWorkflows.class, TestMisc.class })
 public class TestAll {
 
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import uk.org.taverna.server.client.connection.UnreadableResponseException;
+
+/**
+ * 
+ * @author Robert Haines
+ * 
+ */
+public class TestResumableInputStream {
+
+	private static final byte[] DATA = new byte[10000];
+	static {
+		for (int i = 0; i < DATA.length; i++) {
+			DATA[i] = (byte) i;
+		}
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		// The first stream fails after 3000 bytes, the next after 2500 more.
+		FailingSource source = new FailingSource(2500);
+		InputStream in = new ResumableInputStream(new FailingStream(0, 3000),
+				source, 1);
+
+		assertArrayEquals(DATA, IOUtils.toByteArray(in));
+		assertEquals(Arrays.asList(3000L, 5500L, 8000L), source.offsets);
+		assertEquals(DATA.length, ((ResumableInputStream) in).getPosition());
+	}
+
+	@Test
+	public void testResumeSingleBytes() throws Exception {
+		FailingSource source = new FailingSource(100);
+		InputStream in = new ResumableInputStream(new FailingStream(0, 50),
+				source, 1);
+
+		for (int i = 0; i < DATA.length; i++) {
+			assertEquals(DATA[i] & 0xff, in.read());
+		}
+		assertEquals(-1, in.read());
+		assertEquals(50L, (long) source.offsets.get(0));
+	}
+
+	@Test
+	public void testGiveUp() throws Exception {
+		// Every resumed stream fails straight away.
+		FailingSource source = new FailingSource(0);
+		InputStream in = new ResumableInputStream(new FailingStream(0, 1000),
+				source, 3);
+
+		byte[] buffer = new byte[DATA.length];
+		int read = 0;
+		try {
+			while (true) {
+				int n = in.read(buffer, read, buffer.length - read);
+				if (n == -1) {
+					break;
+				}
+				read += n;
+			}
+			fail("Should have given up.");
+		} catch (IOException e) {
+			// Expected.
+		}
+
+		assertEquals(1000, read);
+		assertEquals(3, source.offsets.size());
+	}
+
+	@Test
+	public void testReconnectFails() throws Exception {
+		// The first two attempts to reopen the resource cannot connect.
+		UnreachableSource source = new UnreachableSource(2);
+		InputStream in = new ResumableInputStream(new FailingStream(0, 3000),
+				source, 3);
+
+		assertArrayEquals(DATA, IOUtils.toByteArray(in));
+		assertEquals(3, source.attempts);
+	}
+
+	@Test
+	public void testNoSource() throws Exception {
+		UnreachableSource source = new UnreachableSource(Integer.MAX_VALUE);
+		InputStream in = new ResumableInputStream(new FailingStream(0, 10),
+				source, 3);
+
+		try {
+			IOUtils.toByteArray(in);
+			fail("Should have failed when the resource could not be reopened.");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof UnreadableResponseException);
+		}
+		assertEquals(3, source.attempts);
+	}
+
+	/*
+	 * Reopens the data at the requested offset, each time with a stream that
+	 * fails after the given number of bytes.
+	 */
+	private static final class FailingSource implements
+			ResumableInputStream.Source {
+		private final int failAfter;
+		final List<Long> offsets = new ArrayList<Long>();
+
+		FailingSource(int failAfter) {
+			this.failAfter = failAfter;
+		}
+
+		@Override
+		public InputStream open(long offset) {
+			offsets.add(offset);
+
+			return new FailingStream((int) offset, failAfter);
+		}
+	}
+
+	/*
+	 * Cannot reach the server for the given number of attempts, then reopens
+	 * the data at the requested offset.
+	 */
+	private static final class UnreachableSource implements
+			ResumableInputStream.Source {
+		private final int failures;
+		int attempts = 0;
+
+		UnreachableSource(int failures) {
+			this.failures = failures;
+		}
+
+		@Override
+		public InputStream open(long offset) {
+			if (attempts++ < failures) {
+				throw new UnreadableResponseException(
+						URI.create("http://localhost/"), new IOException(
+								"Connection refused"));
+			}
+
+			return new ByteArrayInputStream(DATA, (int) offset, DATA.length
+					- (int) offset);
+		}
+	}
+
+	/*
+	 * Delivers the data from an offset then throws once it has delivered the
+	 * given number of bytes, unless it reaches the end of the data first.
+	 */
+	private static final class FailingStream extends InputStream {
+		private final InputStream data;
+		private int left;
+
+		FailingStream(int offset, int failAfter) {
+			data = new ByteArrayInputStream(DATA, offset, DATA.length - offset);
+			left = failAfter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+
+			return n == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (data.available() > 0 && left == 0) {
+				throw new IOException("Connection reset");
+			}
+
+			int n = data.read(b, off, Math.min(len, Math.max(left, 0)));
+			if (n > 0) {
+				left -= n;
+			}
+
+			return n;
+		}
+	}
+}
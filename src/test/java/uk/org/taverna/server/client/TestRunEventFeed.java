@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+import uk.org.taverna.server.client.xml.FeedEntry;
+import uk.org.taverna.server.client.xml.FeedStreamReader;
+
+public class TestRunEventFeed {
+
+	private static FeedEntry entry(String title) throws Exception {
+		String doc = "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+				+ "<entry><id>urn:entry:1</id><title>" + title + "</title>"
+				+ "</entry></feed>";
+
+		return FeedStreamReader.read(
+				new ByteArrayInputStream(doc.getBytes("UTF-8"))).get(0);
+	}
+
+	@Test
+	public void testKnownEvents() throws Exception {
+		assertEquals(RunStatus.RUNNING,
+				RunEventFeed.getStatus(entry("Run started"), "abc"));
+		assertEquals(RunStatus.FINISHED,
+				RunEventFeed.getStatus(entry("Run finished"), "abc"));
+		assertEquals(RunStatus.FINISHED, RunEventFeed.getStatus(
+				entry("Workflow run abc finished executing."), "abc"));
+		assertEquals(RunStatus.DELETED,
+				RunEventFeed.getStatus(entry("Run abc destroyed"), "abc"));
+	}
+
+	@Test
+	public void testUnknownEvents() throws Exception {
+		assertNull(RunEventFeed.getStatus(
+				entry("Run finished; it will be deleted at 12:00"), "abc"));
+		assertNull(RunEventFeed.getStatus(entry("Run not yet deleted"),
+				"abc"));
+		assertNull(RunEventFeed.getStatus(entry("Listener added"), "abc"));
+		assertNull(RunEventFeed.getStatus(entry(""), "abc"));
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.org.taverna.server.client.connection.HttpBasicCredentials;
+import uk.org.taverna.server.client.connection.UserCredentials;
+
+public class TestRunMonitor {
+
+	private final static URI SERVER = URI.create("http://localhost:1/rest/");
+
+	private Server server;
+	private UserCredentials credentials;
+	private Script script;
+	private RunMonitor monitor;
+
+	@Before
+	public void setUp() {
+		server = new Server(SERVER);
+		credentials = new HttpBasicCredentials("user", "pass");
+		script = new Script();
+		monitor = new RunMonitor(2, 10, 40, script);
+	}
+
+	@After
+	public void tearDown() {
+		monitor.shutdown();
+		server.close();
+	}
+
+	@Test
+	public void testAwaitCompletion() throws Exception {
+		Run run = run("a");
+		script.set(RunStatus.RUNNING, RunStatus.RUNNING, RunStatus.RUNNING,
+				RunStatus.FINISHED);
+
+		Future<RunStatus> future = monitor.awaitCompletion(run);
+
+		assertEquals(RunStatus.FINISHED, future.get(5, TimeUnit.SECONDS));
+		assertEquals(4, script.polls.get());
+		assertEquals(0, monitor.getWatchCount());
+	}
+
+	@Test
+	public void testListener() throws Exception {
+		Run run = run("a");
+		script.set(RunStatus.INITIALIZED, RunStatus.RUNNING,
+				RunStatus.RUNNING, RunStatus.FINISHED);
+
+		final List<RunStatus> seen = Collections
+				.synchronizedList(new ArrayList<RunStatus>());
+		final CountDownLatch finished = new CountDownLatch(1);
+		monitor.watch(run, new RunStatusListener() {
+			@Override
+			public void statusChanged(Run run, RunStatus from, RunStatus to) {
+				seen.add(to);
+				if (to == RunStatus.FINISHED) {
+					finished.countDown();
+				}
+			}
+		});
+
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertEquals(3, seen.size());
+		assertEquals(RunStatus.INITIALIZED, seen.get(0));
+		assertEquals(RunStatus.RUNNING, seen.get(1));
+		assertEquals(RunStatus.FINISHED, seen.get(2));
+	}
+
+	@Test
+	public void testSharedPoll() throws Exception {
+		script.set(RunStatus.RUNNING, RunStatus.FINISHED);
+
+		Future<RunStatus> first = monitor.awaitCompletion(run("a"));
+		Future<RunStatus> second = monitor.awaitCompletion(run("a"));
+
+		assertEquals(RunStatus.FINISHED, first.get(5, TimeUnit.SECONDS));
+		assertEquals(RunStatus.FINISHED, second.get(5, TimeUnit.SECONDS));
+		assertEquals(2, script.polls.get());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		script.set(RunStatus.RUNNING);
+
+		Future<RunStatus> future = monitor.awaitCompletion(run("a"), 100,
+				TimeUnit.MILLISECONDS);
+
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("The run should not have finished.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertEquals(0, monitor.getWatchCount());
+		assertStopped();
+	}
+
+	@Test
+	public void testCompletionBeforeTimeout() throws Exception {
+		script.set(RunStatus.RUNNING, RunStatus.FINISHED);
+
+		Future<RunStatus> future = monitor.awaitCompletion(run("a"), 200,
+				TimeUnit.MILLISECONDS);
+
+		assertEquals(RunStatus.FINISHED, future.get(5, TimeUnit.SECONDS));
+		Thread.sleep(400);
+		assertEquals(RunStatus.FINISHED, future.get());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		script.set(RunStatus.RUNNING);
+
+		Future<RunStatus> future = monitor.awaitCompletion(run("a"));
+		Thread.sleep(100);
+		assertTrue(future.cancel(true));
+
+		assertEquals(0, monitor.getWatchCount());
+		assertStopped();
+	}
+
+	@Test
+	public void testCancelOneOfTwo() throws Exception {
+		script.set(RunStatus.RUNNING, RunStatus.RUNNING, RunStatus.RUNNING,
+				RunStatus.FINISHED);
+
+		Future<RunStatus> first = monitor.awaitCompletion(run("a"));
+		Future<RunStatus> second = monitor.awaitCompletion(run("a"));
+		assertTrue(first.cancel(true));
+
+		assertEquals(RunStatus.FINISHED, second.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testDeleted() throws Exception {
+		script.set(RunStatus.RUNNING, null);
+
+		Future<RunStatus> future = monitor.awaitCompletion(run("a"));
+
+		assertEquals(RunStatus.DELETED, future.get(5, TimeUnit.SECONDS));
+	}
+
+	private Run run(String id) {
+		return new Run(SERVER.resolve("runs/" + id), server, credentials);
+	}
+
+	// Once a run has stopped being watched it must not be polled again.
+	private void assertStopped() throws InterruptedException {
+		Thread.sleep(100);
+		int polls = script.polls.get();
+		Thread.sleep(200);
+		assertEquals(polls, script.polls.get());
+	}
+
+	/*
+	 * Plays back a list of statuses, one per poll, repeating the last one. A
+	 * null status means the run has been deleted.
+	 */
+	private static final class Script implements RunMonitor.StatusSource {
+		final AtomicInteger polls = new AtomicInteger();
+		private volatile RunStatus[] statuses;
+
+		void set(RunStatus... statuses) {
+			this.statuses = statuses;
+		}
+
+		@Override
+		public RunStatus getStatus(Run run) {
+			int poll = polls.getAndIncrement();
+			RunStatus status = statuses[Math.min(poll, statuses.length - 1)];
+			if (status == null) {
+				throw new RunNotFoundException(run.getIdentifier());
+			}
+
+			return status;
+		}
+	}
+}
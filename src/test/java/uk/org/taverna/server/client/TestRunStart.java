@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+public class TestRunStart extends TestRunsBase {
+
+	private final static String INPUT_IN_FILE = "/inputs/in.txt";
+
+	@Test
+	public void testStartSetsInputs() throws Exception {
+		byte[] workflow = loadResource(WKF_XML_FILE);
+		Run run = Run.create(server, workflow, user1);
+
+		run.getInputPort("xml").setValue(
+				"<hello><yes>hello</yes><no>everybody</no></hello>");
+		run.getInputPort("xpath").setValue("//yes");
+		run.start();
+
+		assertTrue("Run is running", run.isRunning());
+		for (StartPhase phase : StartPhase.values()) {
+			assertTrue("Latency of " + phase + " recorded",
+					run.getStartLatency(phase) >= 0);
+		}
+		wait(run);
+
+		assertEquals("Output nodes(0)", "hello",
+				new String(run.getOutputPort("nodes").getData(0)));
+	}
+
+	@Test
+	public void testStartUploadsFiles() throws Exception {
+		byte[] workflow = loadResource(WKF_PASS_FILE);
+		File inputFile = getResourceFile(INPUT_IN_FILE);
+		Run run = Run.create(server, workflow, user1);
+
+		InputPort port = run.getInputPort("IN");
+		port.setFile(inputFile);
+		run.start();
+
+		assertTrue("File was uploaded", port.isRemoteFile());
+		assertTrue("Run is running", run.isRunning());
+		wait(run);
+
+		assertEquals("Output OUT", "Hello, World!", run.getOutputPort("OUT")
+				.getDataAsString());
+	}
+
+	@Test
+	public void testStartWithMissingInputs() throws Exception {
+		byte[] workflow = loadResource(WKF_XML_FILE);
+		Run run = Run.create(server, workflow, user1);
+
+		run.getInputPort("xml").setValue("<hello/>");
+
+		boolean caught = false;
+		try {
+			run.start();
+		} catch (RunInputsNotSetException e) {
+			caught = true;
+		}
+		assertTrue("Missing inputs were reported", caught);
+		assertEquals("Run not started", RunStatus.INITIALIZED,
+				run.getStatus());
+		assertTrue("Nothing sent", !run.getInputPort("xml").isSent());
+	}
+
+	@Test
+	public void testCreateRuns() {
+		byte[] workflow = loadResource(WKF_PASS_FILE);
+
+		List<Run> runs = server.createRuns(workflow, 3, user1);
+		assertEquals("Runs created", 3, runs.size());
+
+		Set<String> ids = new HashSet<String>();
+		for (Run run : runs) {
+			ids.add(run.getIdentifier());
+			assertEquals("Run is initialized", RunStatus.INITIALIZED,
+					run.getStatus());
+		}
+		assertEquals("Runs are distinct", 3, ids.size());
+
+		for (Run run : server.getRuns(user1)) {
+			ids.remove(run.getIdentifier());
+		}
+		assertTrue("Runs are cached", ids.isEmpty());
+	}
+
+	@Test
+	public void testCreateRunsAtCapacity() throws Exception {
+		server.deleteAllRuns(user1);
+		int limit = server.getRunLimit(user1);
+		byte[] workflow = loadResource(WKF_PASS_FILE);
+
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger notCreated = new AtomicInteger();
+		try {
+			List<Run> runs = server.createRunsAsync(workflow, limit + 2, user1,
+					new FutureCallback<Run>() {
+						@Override
+						public void completed(Run run) {
+							completed.incrementAndGet();
+						}
+
+						@Override
+						public void failed(Exception e) {
+							notCreated.incrementAndGet();
+						}
+
+						@Override
+						public void cancelled() {
+							notCreated.incrementAndGet();
+						}
+					}).get(5, TimeUnit.MINUTES);
+
+			assertTrue("No more runs than the limit", runs.size() <= limit);
+			assertEquals("Callback told of each run", runs.size(),
+					completed.get());
+			assertEquals("Callback told of each failure", limit + 2
+					- runs.size(), notCreated.get());
+		} finally {
+			// Make room for the other tests.
+			server.deleteAllRuns(user1);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import uk.org.taverna.server.client.connection.params.ConnectionPNames;
+import uk.org.taverna.server.client.connection.params.ConnectionParams;
+import uk.org.taverna.server.client.connection.params.NullConnectionParams;
+
+public class TestConnectionFactory {
+
+	private final static URI SERVER = URI.create("http://localhost:1/rest/");
+
+	@Test
+	public void testShared() {
+		Connection first = ConnectionFactory.getConnection(SERVER,
+				new NullConnectionParams());
+		Connection second = ConnectionFactory.getConnection(
+				SERVER.resolve("other/"), new NullConnectionParams());
+
+		try {
+			assertSame(first, second);
+		} finally {
+			ConnectionFactory.release(first);
+			ConnectionFactory.release(second);
+		}
+	}
+
+	@Test
+	public void testParamsChangedAfterConnecting() {
+		ConnectionParams params = new NullConnectionParams();
+		Connection first = ConnectionFactory.getConnection(SERVER, params);
+
+		// The first connection was made without this, so must not be shared.
+		params.setIntParameter(ConnectionPNames.CACHE_SIZE, 16);
+		Connection changed = ConnectionFactory.getConnection(SERVER, params);
+
+		// Parameters equal to the original ones still share the first.
+		Connection same = ConnectionFactory.getConnection(SERVER,
+				new NullConnectionParams());
+
+		try {
+			assertNotSame(first, changed);
+			assertSame(first, same);
+		} finally {
+			ConnectionFactory.release(first);
+			ConnectionFactory.release(changed);
+			ConnectionFactory.release(same);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Robert Haines
+ * 
+ */
+public class TestExponentialBackoffRetryPolicy {
+
+	private final RetryPolicy policy = new ExponentialBackoffRetryPolicy(3,
+			100, 300);
+
+	@Test
+	public void testIdempotentMethods() {
+		for (String method : new String[] { "GET", "PUT", "DELETE" }) {
+			assertTrue(policy.getRetryDelay(method, 1, -1, -1) >= 0);
+			assertTrue(policy.getRetryDelay(method, 1, 502, -1) >= 0);
+			assertTrue(policy.getRetryDelay(method, 1, 503, -1) >= 0);
+			assertTrue(policy.getRetryDelay(method, 1, 504, -1) >= 0);
+			assertTrue(policy.getRetryDelay(method, 1, 500, -1) < 0);
+		}
+	}
+
+	@Test
+	public void testPost() {
+		assertTrue(policy.getRetryDelay("POST", 1, 503, -1) >= 0);
+		assertTrue(policy.getRetryDelay("POST", 1, 502, -1) < 0);
+		assertTrue(policy.getRetryDelay("POST", 1, -1, -1) < 0);
+	}
+
+	@Test
+	public void testBackoff() {
+		for (int i = 0; i < 100; i++) {
+			long first = policy.getRetryDelay("GET", 1, -1, -1);
+			long second = policy.getRetryDelay("GET", 2, -1, -1);
+			long third = policy.getRetryDelay("GET", 3, -1, -1);
+
+			assertTrue(first >= 50 && first <= 100);
+			assertTrue(second >= 100 && second <= 200);
+			assertTrue(third >= 150 && third <= 300);
+		}
+
+		assertTrue(policy.getRetryDelay("GET", 4, -1, -1) < 0);
+	}
+
+	@Test
+	public void testRetryAfter() {
+		assertEquals(200, policy.getRetryDelay("POST", 1, 503, 200));
+		assertTrue(policy.getRetryDelay("POST", 1, 503, 1000) < 0);
+	}
+}
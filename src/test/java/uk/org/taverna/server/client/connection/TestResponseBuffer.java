@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.connection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.BasicHttpEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.org.taverna.server.client.util.MemoryBudget;
+
+public class TestResponseBuffer {
+
+	private static final byte[] DATA = new byte[5000];
+	static {
+		for (int i = 0; i < DATA.length; i++) {
+			DATA[i] = (byte) i;
+		}
+	}
+
+	private long limit;
+
+	@Before
+	public void setLimit() {
+		limit = MemoryBudget.getLimit();
+	}
+
+	@After
+	public void resetLimit() {
+		MemoryBudget.setLimit(limit);
+	}
+
+	@Test
+	public void testInMemory() throws Exception {
+		long used = MemoryBudget.getUsed();
+
+		InputStream is = ResponseBuffer.buffer(entity(DATA.length));
+		assertTrue(is instanceof ByteArrayInputStream);
+		assertEquals(used + DATA.length, MemoryBudget.getUsed());
+
+		assertArrayEquals(DATA, IOUtils.toByteArray(is));
+		is.close();
+		assertEquals(used, MemoryBudget.getUsed());
+	}
+
+	@Test
+	public void testOverLimitSpills() throws Exception {
+		MemoryBudget.setLimit(1000);
+		long used = MemoryBudget.getUsed();
+
+		InputStream is = ResponseBuffer.buffer(entity(DATA.length));
+		assertFalse(is instanceof ByteArrayInputStream);
+		assertEquals(used, MemoryBudget.getUsed());
+
+		assertArrayEquals(DATA, IOUtils.toByteArray(is));
+		is.close();
+	}
+
+	@Test
+	public void testUnknownLengthSpills() throws Exception {
+		MemoryBudget.setLimit(1000);
+		long used = MemoryBudget.getUsed();
+
+		InputStream is = ResponseBuffer.buffer(entity(-1));
+		assertFalse(is instanceof ByteArrayInputStream);
+		assertEquals(used, MemoryBudget.getUsed());
+
+		assertArrayEquals(DATA, IOUtils.toByteArray(is));
+		is.close();
+	}
+
+	private static BasicHttpEntity entity(long length) {
+		BasicHttpEntity entity = new BasicHttpEntity();
+		entity.setContent(new ByteArrayInputStream(DATA));
+		entity.setContentLength(length);
+
+		return entity;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author Robert Haines
+ * 
+ */
+public class TestBufferPool {
+
+	// Spans several pooled buffers and ends part way through one.
+	private final byte[] data = new byte[(BufferPool.BUFFER_SIZE * 3) + 123];
+
+	public TestBufferPool() {
+		new Random(42).nextBytes(data);
+	}
+
+	@Test
+	public void testReuse() {
+		byte[] buffer = BufferPool.acquire();
+		assertEquals(BufferPool.BUFFER_SIZE, buffer.length);
+		BufferPool.release(buffer);
+
+		long hits = BufferPool.getHits();
+		BufferPool.release(BufferPool.acquire());
+		assertTrue(BufferPool.getHits() > hits);
+	}
+
+	@Test
+	public void testPooledStream() throws Exception {
+		PooledByteArrayOutputStream os = new PooledByteArrayOutputStream();
+		os.write(data[0]);
+		os.write(data, 1, data.length - 1);
+
+		assertEquals(data.length, os.size());
+		assertArrayEquals(data, os.toByteArray());
+
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		os.writeTo(copy);
+		assertArrayEquals(data, copy.toByteArray());
+
+		os.close();
+		assertEquals(0, os.size());
+	}
+
+	@Test
+	public void testToByteArray() throws Exception {
+		assertArrayEquals(data, IOUtils.toByteArray(new ByteArrayInputStream(
+				data), data.length));
+		assertArrayEquals(data, IOUtils.toByteArray(new ByteArrayInputStream(
+				data), -1));
+	}
+
+	@Test
+	public void testCopyToChannel() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		assertEquals(data.length, IOUtils.copy(new ByteArrayInputStream(data),
+				Channels.newChannel(os)));
+		assertArrayEquals(data, os.toByteArray());
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Robert Haines
+ * 
+ */
+public class TestMemoryBudget {
+
+	private long limit;
+
+	@Before
+	public void setLimit() {
+		limit = MemoryBudget.getLimit();
+		MemoryBudget.setLimit(1000);
+	}
+
+	@After
+	public void resetLimit() {
+		MemoryBudget.setLimit(limit);
+	}
+
+	@Test
+	public void testReserve() throws Exception {
+		long used = MemoryBudget.getUsed();
+
+		MemoryBudget.acquire(600);
+		assertEquals(used + 600, MemoryBudget.getUsed());
+		assertTrue(MemoryBudget.getPeak() >= 600);
+
+		long refusals = MemoryBudget.getRefusals();
+		assertFalse(MemoryBudget.tryAcquire(600));
+		assertEquals(refusals + 1, MemoryBudget.getRefusals());
+
+		assertTrue(MemoryBudget.tryAcquire(400));
+		MemoryBudget.release(1000);
+		assertEquals(used, MemoryBudget.getUsed());
+	}
+
+	@Test
+	public void testOversized() throws Exception {
+		// Larger than the whole budget, so only granted to a caller that
+		// would otherwise wait forever, and only while nothing is reserved.
+		assertFalse(MemoryBudget.tryAcquire(5000));
+
+		MemoryBudget.acquire(5000);
+		MemoryBudget.release(5000);
+	}
+
+	@Test
+	public void testWait() throws Exception {
+		MemoryBudget.acquire(1000);
+
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// Release straight away.
+				}
+				MemoryBudget.release(1000);
+			}
+		};
+
+		long waits = MemoryBudget.getWaits();
+		releaser.start();
+		MemoryBudget.acquire(500);
+		assertEquals(waits + 1, MemoryBudget.getWaits());
+
+		MemoryBudget.release(500);
+		releaser.join();
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.junit.Test;
+
+/**
+ * 
+ * @author Robert Haines
+ * 
+ */
+public class TestReadAheadInputStream {
+
+	private final byte[] data = new byte[(BufferPool.BUFFER_SIZE * 10) + 7];
+
+	public TestReadAheadInputStream() {
+		new Random(42).nextBytes(data);
+	}
+
+	@Test
+	public void testRead() throws Exception {
+		InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(
+				data), 2);
+
+		byte[] read = new byte[data.length];
+		read[0] = (byte) is.read();
+		int offset = 1;
+		int n;
+		while ((n = is.read(read, offset, Math.min(1000, read.length - offset))) > 0) {
+			offset += n;
+		}
+
+		assertEquals(data.length, offset);
+		assertArrayEquals(data, read);
+		assertEquals(-1, is.read());
+		is.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testError() throws Exception {
+		InputStream failing = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("Connection reset");
+			}
+		};
+		InputStream is = new ReadAheadInputStream(new SequenceInputStream(
+				new ByteArrayInputStream(data), failing));
+
+		try {
+			// All the data before the error must still be delivered.
+			byte[] read = new byte[data.length];
+			int offset = 0;
+			while (offset < read.length) {
+				offset += is.read(read, offset, read.length - offset);
+			}
+			assertArrayEquals(data, read);
+
+			is.read();
+		} finally {
+			is.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testClose() throws Exception {
+		InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(
+				data), 1);
+		is.read();
+		is.close();
+
+		is.read();
+	}
+
+	@Test
+	public void testCloseAborts() throws Exception {
+		final CountDownLatch aborted = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+
+		// A source that blocks, as a socket would, until it is aborted.
+		class BlockingSource extends InputStream implements
+				ConnectionReleaseTrigger {
+			@Override
+			public int read() throws IOException {
+				try {
+					aborted.await();
+				} catch (InterruptedException e) {
+					// Like a socket read, ignore the interrupt.
+				}
+				throw new IOException("Connection aborted");
+			}
+
+			@Override
+			public void close() {
+				closed.countDown();
+			}
+
+			@Override
+			public void releaseConnection() {
+				close();
+			}
+
+			@Override
+			public void abortConnection() {
+				aborted.countDown();
+			}
+		}
+
+		InputStream is = new ReadAheadInputStream(new BlockingSource(), 1);
+		is.close();
+
+		assertTrue(aborted.await(5, TimeUnit.SECONDS));
+		assertTrue(closed.await(5, TimeUnit.SECONDS));
+	}
+}
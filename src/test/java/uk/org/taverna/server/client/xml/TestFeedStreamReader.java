@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class TestFeedStreamReader {
+
+	private final static String DOC = "<?xml version=\"1.0\"?>"
+			+ "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+			+ "<title>Taverna Server Events</title>"
+			+ "<id>urn:feed</id>"
+			+ "<link href=\"http://example.com/rest/feed\" rel=\"self\"/>"
+			+ "<entry>"
+			+ "<id>urn:entry:2</id>"
+			+ "<title>Run finished</title>"
+			+ "<link href=\"http://example.com/rest/runs/abc\"/>"
+			+ "<content type=\"xhtml\"><div xmlns=\"http://www.w3.org/1999/xhtml\">"
+			+ "Run <b>abc</b> has finished</div></content>"
+			+ "</entry>"
+			+ "<entry>"
+			+ "<id>urn:entry:1</id>"
+			+ "<title>Run started</title>"
+			+ "<link href=\"http://example.com/rest/runs/abc\"/>"
+			+ "<summary>Run abc is operating</summary>"
+			+ "</entry>"
+			+ "</feed>";
+
+	@Test
+	public void testRead() throws Exception {
+		List<FeedEntry> entries = FeedStreamReader
+				.read(new ByteArrayInputStream(DOC.getBytes()));
+
+		assertEquals(2, entries.size());
+
+		FeedEntry entry = entries.get(0);
+		assertEquals("urn:entry:2", entry.getId());
+		assertEquals("Run finished", entry.getTitle());
+		assertEquals("Run abc has finished", entry.getContent());
+		assertEquals(1, entry.getLinks().size());
+		assertEquals(URI.create("http://example.com/rest/runs/abc"), entry
+				.getLinks().get(0));
+
+		entry = entries.get(1);
+		assertEquals("urn:entry:1", entry.getId());
+		assertTrue(entry.getContent().contains("operating"));
+	}
+
+	@Test
+	public void testSkipsBadLinks() throws Exception {
+		String doc = "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+				+ "<entry>"
+				+ "<id>urn:entry:1</id>"
+				+ "<title type=\"xhtml\"><div xmlns=\"http://www.w3.org/1999/xhtml\">"
+				+ "Run <i>abc</i> finished</div></title>"
+				+ "<link href=\"http://example.com/a b|c\"/>"
+				+ "<link href=\"runs/abc\"/>"
+				+ "</entry>"
+				+ "</feed>";
+
+		List<FeedEntry> entries = FeedStreamReader
+				.read(new ByteArrayInputStream(doc.getBytes()));
+
+		assertEquals(1, entries.size());
+		assertEquals("Run abc finished", entries.get(0).getTitle());
+		assertEquals(1, entries.get(0).getLinks().size());
+		assertEquals(URI.create("runs/abc"), entries.get(0).getLinks().get(0));
+	}
+
+	@Test
+	public void testNoExternalEntities() throws Exception {
+		File secret = File.createTempFile("secret", ".txt");
+		secret.deleteOnExit();
+		FileUtils.writeStringToFile(secret, "secret");
+
+		String doc = "<?xml version=\"1.0\"?>"
+				+ "<!DOCTYPE feed [<!ENTITY xxe SYSTEM \""
+				+ secret.toURI() + "\">]>"
+				+ "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+				+ "<entry>"
+				+ "<id>urn:entry:1</id>"
+				+ "<title>Run &xxe; finished</title>"
+				+ "</entry>"
+				+ "</feed>";
+
+		try {
+			List<FeedEntry> entries = FeedStreamReader
+					.read(new ByteArrayInputStream(doc.getBytes()));
+			for (FeedEntry entry : entries) {
+				assertFalse(entry.getTitle().contains("secret"));
+			}
+		} catch (XMLStreamException e) {
+			// Refusing the document outright is fine too.
+		}
+	}
+}
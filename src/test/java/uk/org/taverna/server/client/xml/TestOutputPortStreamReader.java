@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2013 The University of Manchester, UK.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the names of The University of Manchester nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package uk.org.taverna.server.client.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import uk.org.taverna.server.client.AbstractPortValue;
+import uk.org.taverna.server.client.OutputPort;
+import uk.org.taverna.server.client.OutputPortVisitor;
+
+public class TestOutputPortStreamReader {
+
+	private final static String DOC = "<?xml version=\"1.0\"?>"
+			+ "<port:workflowOutputs xmlns:port=\"http://ns.taverna.org.uk/2010/port/\""
+			+ " xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+			+ "<port:output port:name=\"single\" port:depth=\"0\">"
+			+ "<port:value xlink:href=\"http://example.com/out/single\""
+			+ " port:contentType=\"text/plain\" port:contentByteLength=\"5\"/>"
+			+ "</port:output>"
+			+ "<port:output port:name=\"nested\" port:depth=\"2\">"
+			+ "<port:list xlink:href=\"http://example.com/out/nested\" port:length=\"2\">"
+			+ "<port:list xlink:href=\"http://example.com/out/nested/1\" port:length=\"2\">"
+			+ "<port:value xlink:href=\"http://example.com/out/nested/1/1\""
+			+ " port:contentType=\"text/plain\" port:contentByteLength=\"3\"/>"
+			+ "<port:error xlink:href=\"http://example.com/out/nested/1/2\""
+			+ " port:errorByteLength=\"7\"/>"
+			+ "</port:list>"
+			+ "<port:absent xlink:href=\"http://example.com/out/nested/2\"/>"
+			+ "</port:list>"
+			+ "</port:output>"
+			+ "<port:output port:name=\"missing\" port:depth=\"0\">"
+			+ "<port:absent/>"
+			+ "</port:output>"
+			+ "</port:workflowOutputs>";
+
+	private InputStream getDocument() {
+		return new ByteArrayInputStream(DOC.getBytes());
+	}
+
+	@Test
+	public void testBuildPorts() throws Exception {
+		OutputPortBuilder builder = new OutputPortBuilder(null);
+		OutputPortStreamReader.read(null, getDocument(), builder);
+		Map<String, OutputPort> ports = builder.getPorts();
+
+		assertEquals(3, ports.size());
+
+		OutputPort single = ports.get("single");
+		assertEquals(0, single.getDepth());
+		assertEquals("text/plain", single.getContentType());
+		assertEquals(5, single.getDataSize());
+		assertEquals(URI.create("http://example.com/out/single"),
+				single.getReference());
+		assertFalse(single.isError());
+
+		OutputPort nested = ports.get("nested");
+		assertEquals(2, nested.getDepth());
+		assertEquals(2, nested.getValue().size());
+		assertEquals(2, nested.getValue().get(0).size());
+		assertEquals(0, nested.getValue().get(1).size());
+		assertTrue(nested.getValue().get(0).get(1).isError());
+		assertTrue(nested.isError());
+		assertEquals(10, nested.getDataSize());
+
+		OutputPort missing = ports.get("missing");
+		assertEquals(AbstractPortValue.PORT_EMPTY_TYPE,
+				missing.getContentType());
+		assertEquals(0, missing.getDataSize());
+	}
+
+	@Test
+	public void testVisitor() throws Exception {
+		final List<String> events = new ArrayList<String>();
+
+		OutputPortStreamReader.read(null, getDocument(),
+				new OutputPortVisitor() {
+					@Override
+					public void startPort(String name, int depth) {
+						events.add("port " + name);
+					}
+
+					@Override
+					public void startList(URI reference) {
+						events.add("[");
+					}
+
+					@Override
+					public void value(AbstractPortValue value) {
+						events.add(value.isError() ? "error" : "value");
+					}
+
+					@Override
+					public void endList() {
+						events.add("]");
+					}
+
+					@Override
+					public void endPort(String name) {
+						events.add("end " + name);
+					}
+				});
+
+		assertEquals("[port single, value, end single, port nested, [, [, "
+				+ "value, error, ], [, ], ], end nested, port missing, value, "
+				+ "end missing]", events.toString());
+	}
+}